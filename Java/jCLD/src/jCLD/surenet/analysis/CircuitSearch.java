@@ -0,0 +1,424 @@
+package jCLD.surenet.analysis;
+
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Finds the elementary circuits (loops) through a single start
+ * node of a CsrGraph using Johnson's algorithm:
+ *
+ *   Donald B. Johnson, "Finding all the elementary circuits of a
+ *   directed graph", SIAM Journal on Computing 4(1), 1975.
+ *
+ * The search for start node s only uses nodes with an index
+ * greater than or equal to s that are in the same strongly
+ * connected component as s. A node is 'blocked' while it is on
+ * the path or cannot currently reach s; the B-lists record which
+ * nodes to unblock once a blocked node can reach s again. This
+ * bounds the work at O((V+E)(C+1)) for C circuits.
+ *
+ * The depth-first search uses an explicit stack rather than
+ * recursion, so long loops cannot overflow the call stack, and
+ * it can be resumed: each call to next() runs until the next
+ * circuit is found. The arrays are sized to the graph once and
+ * re-used for every start node. Johnson's algorithm does at most
+ * O(V+E) work between one circuit and the next, so a caller can
+ * check its own limits between circuits.
+ *
+ * A maximum loop length can be set. A path that is cut off at
+ * the maximum length is treated as if it had found a circuit, so
+ * that the nodes on it are unblocked and stay available to shorter
+ * paths; this keeps the blocking correct but loses some of its
+ * savings. Because cut-off searches can run for a long time
+ * between circuits, a stop check can also be set, which is
+ * polled every few thousand steps.
+ */
+public class CircuitSearch{
+
+	private final CsrGraph  graph;
+
+	// Members of the strongly connected component of the current start node
+	private final int[]     stamp;        // Node is in the component if stamp[v] == currentStamp
+	private final int[]     forwardMark;
+	private final int[]     members;
+	private int             memberCount;
+	private int             currentStamp = 0;
+	private final int[]     work;
+
+	// Johnson's blocked flags and B-lists; B-lists are linked lists in pooled arrays
+	private final boolean[] blocked;
+	private final int[]     bHead;        // First entry of B(v), or -1
+	private int[]           bNext;
+	private int[]           bValue;
+	private int             bFree   = -1; // Recycled entries
+	private int             bUsed   = 0;
+	private int[]           unblockStack;
+
+	// The path: the node on each stack frame, its edge cursor and whether a circuit was found below it
+	private final int[]     frameNode;
+	private final int[]     frameCursor;
+	private final boolean[] frameFound;
+	private final int[]     pathEdge;     // Edge from frame i to frame i+1 (or back to the start)
+	private int             depth = 0;
+	private int             start = -1;
+	private int             rootEnd;      // End of the range of start node edges to follow
+
+	// Limits
+	private static final int CHECK_INTERVAL = 4096;
+	private int             maxLength      = 0;    // Zero for no limit
+	private long            lengthCutoffs  = 0;
+	private BooleanSupplier stopCheck      = null;
+	private int             untilCheck     = CHECK_INTERVAL;
+	private boolean         stopped        = false;
+
+	// Buffers handed to visitors
+	private int[]           conceptBuffer  = null;
+	private boolean[]       negativeBuffer = null;
+
+	/**
+	 * Creates a search over the specified graph
+	 * @param g
+	 */
+	public CircuitSearch(CsrGraph g) {
+		graph        = g;
+		int n        = g.size();
+		stamp        = new int[n];
+		forwardMark  = new int[n];
+		members      = new int[n];
+		work         = new int[n];
+		blocked      = new boolean[n];
+		bHead        = new int[n];
+		bNext        = new int[16];
+		bValue       = new int[16];
+		unblockStack = new int[16];
+		frameNode    = new int[n];
+		frameCursor  = new int[n];
+		frameFound   = new boolean[n];
+		pathEdge     = new int[n];
+		Arrays.fill(bHead, -1);
+	}
+
+	public CsrGraph getGraph() {
+		return graph;
+	}
+
+	/**
+	 * Sets the maximum number of links in a circuit; zero for no limit
+	 * @param max
+	 */
+	public void setMaxLength(int max) {
+		maxLength = max;
+	}
+
+	/**
+	 * Sets a check that is polled during the search; when it returns
+	 * true, next() gives up and returns false. May be null.
+	 * @param check
+	 */
+	public void setStopCheck(BooleanSupplier check) {
+		stopCheck = check;
+	}
+
+	/**
+	 * Returns true if the last call to next() returned false because
+	 * the stop check said to stop, rather than because there are no
+	 * more circuits
+	 * @return
+	 */
+	public boolean wasStopped() {
+		return stopped;
+	}
+
+	/**
+	 * Returns the number of paths cut off at the maximum length since
+	 * the last call, and resets the count
+	 * @return
+	 */
+	public long takeLengthCutoffs() {
+		long ret = lengthCutoffs;
+		lengthCutoffs = 0;
+		return ret;
+	}
+
+	/**
+	 * Prepares the search for circuits through node s. Only nodes
+	 * with an index of at least s that are in the same strongly
+	 * connected component as s are used. The search can be further
+	 * limited to nodes with the same component label as s, and
+	 * to nodes that are alive; either array may be null.
+	 * @param s
+	 * @param component
+	 * @param alive
+	 * @return false if s is not on any circuit
+	 */
+	public boolean start(int s, int[] component, boolean[] alive) {
+		return start(s, component, alive, graph.outStart(s), graph.outEnd(s));
+	}
+
+	/**
+	 * Prepares the search for circuits through node s whose first link
+	 * is one of the out-edges firstEdge..lastEdge-1 of s. Each circuit
+	 * has exactly one first link, so a start node's circuits can be
+	 * split between several searches by giving each a range of edges.
+	 * @param s
+	 * @param component
+	 * @param alive
+	 * @param firstEdge
+	 * @param lastEdge
+	 * @return false if s is not on any circuit
+	 */
+	public boolean start(int s, int[] component, boolean[] alive, int firstEdge, int lastEdge) {
+		clear();
+		start = s;
+		if(alive != null && !alive[s]) return false;
+		findComponent(s, component, alive);
+		if(memberCount == 1 && !hasSelfLoop(s)) return false;
+		push(s, -1);
+		frameCursor[0] = firstEdge;
+		rootEnd        = lastEdge;
+		return true;
+	}
+
+	/**
+	 * Returns true if node v is in the component being searched
+	 * from the current start node
+	 * @param v
+	 * @return
+	 */
+	public boolean inComponent(int v) {
+		return stamp[v] == currentStamp;
+	}
+
+	/**
+	 * Continues the search until the next circuit is found
+	 * @return true if a circuit was found; false if there are no more
+	 */
+	public boolean next() {
+		while(depth > 0) {
+			if(stopCheck != null && --untilCheck <= 0) {
+				untilCheck = CHECK_INTERVAL;
+				if(stopCheck.getAsBoolean()) {
+					stopped = true;
+					return false;
+				}
+			}
+			int top = depth - 1;
+			int v   = frameNode[top];
+			int e   = frameCursor[top];
+			if(e < (top == 0 ? rootEnd : graph.outEnd(v))) {
+				frameCursor[top]++;
+				int w = graph.target(e);
+				if(stamp[w] != currentStamp) continue; // Not in the component
+				if(w == start) {
+					frameFound[top] = true;
+					pathEdge[top]   = e;
+					return true;
+				}
+				if(!blocked[w]) {
+					if(maxLength > 0 && depth >= maxLength) {
+						frameFound[top] = true; // Cut off; keep this path's nodes available to shorter paths
+						lengthCutoffs++;
+					}
+					else push(w, e);
+				}
+			}
+			else {
+				if(frameFound[top]) unblock(v);
+				else {
+					for(int f = graph.outStart(v); f < graph.outEnd(v); f++) {
+						int w = graph.target(f);
+						if(stamp[w] == currentStamp) addToB(w, v);
+					}
+				}
+				depth--;
+				if(depth > 0 && frameFound[top]) frameFound[depth - 1] = true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the start node of the current search
+	 * @return
+	 */
+	public int getStart() {
+		return start;
+	}
+
+	/**
+	 * Returns the number of links in the circuit just found
+	 * @return
+	 */
+	public int length() {
+		return depth;
+	}
+
+	/**
+	 * Returns the i'th node of the circuit just found; node 0 is the start node
+	 * @param i
+	 * @return
+	 */
+	public int nodeAt(int i) {
+		return frameNode[i];
+	}
+
+	/**
+	 * Returns the edge from the i'th node of the circuit just found to the next
+	 * (for the last node, back to the start)
+	 * @param i
+	 * @return
+	 */
+	public int edgeAt(int i) {
+		return pathEdge[i];
+	}
+
+	/**
+	 * Returns the concept IDs of the circuit just found, in order
+	 * @return
+	 */
+	public int[] toConceptIds() {
+		int[] ret = new int[depth];
+		for(int i = 0; i < depth; i++) ret[i] = graph.getConcept(frameNode[i]).getId();
+		return ret;
+	}
+
+	/**
+	 * Passes the circuit just found to the visitor, using
+	 * buffers that belong to this search
+	 * @param visitor
+	 */
+	public void visit(LoopVisitor visitor) {
+		if(conceptBuffer == null) {
+			conceptBuffer  = new int[graph.size()];
+			negativeBuffer = new boolean[graph.size()];
+		}
+		for(int i = 0; i < depth; i++) {
+			conceptBuffer[i]  = graph.getConcept(frameNode[i]).getId();
+			negativeBuffer[i] = graph.isNegative(pathEdge[i]);
+		}
+		visitor.visitLoop(conceptBuffer, negativeBuffer, depth);
+	}
+
+	/**
+	 * Returns the number of nodes in the component searched
+	 * from the current start node
+	 * @return
+	 */
+	public int componentSize() {
+		return memberCount;
+	}
+
+	private boolean hasSelfLoop(int v) {
+		for(int e = graph.outStart(v); e < graph.outEnd(v); e++) if(graph.target(e) == v) return true;
+		return false;
+	}
+
+	private void push(int v, int viaEdge) {
+		if(depth > 0) pathEdge[depth - 1] = viaEdge;
+		frameNode[depth]   = v;
+		frameCursor[depth] = graph.outStart(v);
+		frameFound[depth]  = false;
+		depth++;
+		blocked[v] = true;
+	}
+
+	/**
+	 * Resets the blocked flags and B-lists used by the previous start node
+	 */
+	private void clear() {
+		for(int i = 0; i < memberCount; i++) {
+			int v = members[i];
+			blocked[v] = false;
+			bHead[v]   = -1;
+		}
+		memberCount = 0;
+		stopped     = false;
+		bFree       = -1;
+		bUsed       = 0;
+		depth       = 0;
+		if(++currentStamp == Integer.MAX_VALUE) {
+			Arrays.fill(stamp, 0);
+			Arrays.fill(forwardMark, 0);
+			currentStamp = 1;
+		}
+	}
+
+	/**
+	 * Marks the nodes that can both be reached from s and reach s,
+	 * using only allowed nodes with index at least s
+	 */
+	private void findComponent(int s, int[] component, boolean[] alive) {
+		int label = component == null ? 0 : component[s];
+		// Forward reachability
+		int count = 0;
+		work[count++]  = s;
+		forwardMark[s] = currentStamp;
+		while(count > 0) {
+			int v = work[--count];
+			for(int e = graph.outStart(v); e < graph.outEnd(v); e++) {
+				int w = graph.target(e);
+				if(w < s || forwardMark[w] == currentStamp) continue;
+				if((component != null && component[w] != label) || (alive != null && !alive[w])) continue;
+				forwardMark[w] = currentStamp;
+				work[count++]  = w;
+			}
+		}
+		// Backward reachability, keeping only nodes also reached going forward
+		work[count++] = s;
+		stamp[s]      = currentStamp;
+		members[memberCount++] = s;
+		while(count > 0) {
+			int v = work[--count];
+			for(int e = graph.inStart(v); e < graph.inEnd(v); e++) {
+				int u = graph.source(e);
+				if(forwardMark[u] != currentStamp || stamp[u] == currentStamp) continue;
+				stamp[u]      = currentStamp;
+				work[count++] = u;
+				members[memberCount++] = u;
+			}
+		}
+	}
+
+	private void addToB(int w, int v) {
+		for(int b = bHead[w]; b != -1; b = bNext[b]) if(bValue[b] == v) return;
+		int b;
+		if(bFree != -1) {
+			b     = bFree;
+			bFree = bNext[b];
+		}
+		else {
+			if(bUsed == bNext.length) {
+				bNext  = Arrays.copyOf(bNext,  bUsed * 2);
+				bValue = Arrays.copyOf(bValue, bUsed * 2);
+			}
+			b = bUsed++;
+		}
+		bValue[b] = v;
+		bNext[b]  = bHead[w];
+		bHead[w]  = b;
+	}
+
+	private void unblock(int u) {
+		int count = 0;
+		unblockStack[count++] = u;
+		while(count > 0) {
+			int x = unblockStack[--count];
+			if(!blocked[x]) continue;
+			blocked[x] = false;
+			int b = bHead[x];
+			while(b != -1) {
+				int next = bNext[b];
+				int w    = bValue[b];
+				if(blocked[w]) {
+					if(count == unblockStack.length) unblockStack = Arrays.copyOf(unblockStack, count * 2);
+					unblockStack[count++] = w;
+				}
+				bNext[b] = bFree; // Recycle the entry
+				bFree    = b;
+				b        = next;
+			}
+			bHead[x] = -1;
+		}
+	}
+
+}
@@ -10,23 +10,23 @@ package jCLD.surenet.analysis;
  */
 public class Concept implements NamedPolarityItem, Comparable<NamedPolarityItem>{
 
-	private static int idCounter;           // Counter used to set unique IDs
-	
-	private String   name;                   // Names should be unique; this is enforced by the Concept Factory
-	public  Integer  id;                     // Each Concept (and its opposite polarity pair) gets a unique ID number
+	private String   name;                   // Names should be unique; this is enforced by the Concept Registry
+	public  final int id;                    // Each Concept (and its opposite polarity pair) gets a unique ID number within its registry
 	
 	private Polarity polarity;               // Every concept has a polarity; only positive polarity can be created; the negative pair is created automatically
 	private String   representation;         // A string representing this concept; will be the name, or "!name" if polarity has been reversed
 	
 	/**
-	 * Creates a new instance with Positive Polarity
+	 * Creates a new instance with Positive Polarity;
+	 * the ID is assigned by the Concept Registry
 	 * @param n
+	 * @param i
 	 */
-	protected Concept(String n) {
+	protected Concept(String n, int i) {
 		name           = n;
 		representation = name;
 		polarity       = Polarity.POSITIVE;
-		id             = idCounter++;
+		id             = i;
 	}
 	
 
@@ -1,11 +1,6 @@
 package jCLD.surenet.analysis;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Scanner;
-import java.util.TreeSet;
+import java.io.IOException;
 import java.util.Vector;
 
 /**
@@ -13,12 +8,24 @@ import java.util.Vector;
  * names are unique- an attempt to create a new
  * concept with an existing name will return
  * the original concept.
+ * 
+ * The ConceptFactory is a shared, static front for a
+ * single default ConceptRegistry. Code that needs more
+ * than one network in the same JVM should create its
+ * own ConceptRegistry instead.
  */
 public class ConceptFactory{
 
-	private static Map<String, Concept> concepts = new HashMap<String, Concept>();
+	private static ConceptRegistry defaultRegistry = new ConceptRegistry();
+	
+	/**
+	 * Returns the registry behind the static methods
+	 * @return
+	 */
+	public static ConceptRegistry getDefaultRegistry() {
+		return defaultRegistry;
+	}
 	
-	private static boolean lastAddedWasNewlyCreated = false;
 	/**
 	 * Returns a new concept with the name,
 	 * or an existing one if that name has already
@@ -27,16 +34,7 @@ public class ConceptFactory{
 	 * @return
 	 */
 	public static Concept getConcept(String name) {
-		name.intern();
-		Concept orig = concepts.get(name);
-		if(orig != null) {
-			lastAddedWasNewlyCreated = false;
-			return orig;
-		}
-		lastAddedWasNewlyCreated = true;
-		Concept c = new Concept(name);
-		concepts.put(name,  c);
-		return c;
+		return defaultRegistry.getConcept(name);
 	}
 	
 	/**
@@ -45,32 +43,20 @@ public class ConceptFactory{
 	 * the name provided was already in use.
 	 */
 	public static boolean getLastAddedWasNewlyCreated() {
-		return lastAddedWasNewlyCreated;
+		return defaultRegistry.getLastAddedWasNewlyCreated();
 	}
 	
+	/**
+	 * Creates the concepts named in a network file. Concepts
+	 * are created in alphabetical order, so the same network file
+	 * will always be assigned the same IDs.
+	 * @param filename
+	 */
 	public static void loadConceptSetFromNetworkFile(String filename) {
 	  System.out.println("Starting load of concepts from network...");
 	  try {
-        File myObj = new File(filename);
-        Scanner myReader = new Scanner(myObj);
-    	
-        TreeSet<String> allConceptNames = new TreeSet<String>();
-        
-        String data = myReader.nextLine(); // Skip the first line
-        while (myReader.hasNextLine()) {
-          data = myReader.nextLine();  
-          String[]  info      = data.split(",");
-          allConceptNames.add(info[0]);
-          allConceptNames.add(info[1]);
-        }
-        myReader.close();
-        
-        for(String conceptName: allConceptNames) {
-        	Concept c = getConcept(conceptName);
-        	System.out.println(c.getId() + ": " + conceptName);
-        }
-        
-      } catch (FileNotFoundException e) {
+		  new NetworkFileReader(defaultRegistry).read(filename);
+      } catch (IOException e) {
         System.out.println("An error occurred.");
         e.printStackTrace();
       }
@@ -78,9 +64,7 @@ public class ConceptFactory{
 	}
 	
 	public static Vector<Concept> getAll(){
-		Vector<Concept> ret = new Vector<Concept>();
-		ret.addAll(concepts.values());
-		return ret;
+		return defaultRegistry.getAll();
 	}
 	
 	
@@ -0,0 +1,105 @@
+package jCLD.surenet.analysis;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * Holds the concepts for a single analysis. Ensures that
+ * names are unique- an attempt to create a new concept with
+ * an existing name will return the original concept.
+ *
+ * IDs are dense: the concepts in a registry are numbered
+ * 0..size()-1 in the order in which they were created, so
+ * anything indexed by concept can use a plain array. Each
+ * analysis should use its own registry; the IDs in one
+ * registry are unrelated to the IDs in another.
+ */
+public class ConceptRegistry{
+
+	private Map<String, Integer> ids      = new HashMap<String, Integer>();
+	private Concept[]            concepts = new Concept[16];
+	private int                  size     = 0;
+
+	private boolean lastAddedWasNewlyCreated = false;
+
+	/**
+	 * Returns a new concept with the name,
+	 * or an existing one if that name has already
+	 * been used to create a concept in this registry.
+	 * @param name
+	 * @return
+	 */
+	public Concept getConcept(String name) {
+		Integer id = ids.get(name);
+		if(id != null) {
+			lastAddedWasNewlyCreated = false;
+			return concepts[id];
+		}
+		lastAddedWasNewlyCreated = true;
+		if(size == concepts.length) concepts = Arrays.copyOf(concepts, size * 2);
+		Concept c = new Concept(name, size);
+		concepts[size] = c;
+		ids.put(name, size);
+		size++;
+		return c;
+	}
+
+	/**
+	 * Returns the concept with the specified ID
+	 * @param id
+	 * @return
+	 */
+	public Concept getConcept(int id) {
+		return concepts[id];
+	}
+
+	/**
+	 * Returns the name of the concept with the specified ID
+	 * @param id
+	 * @return
+	 */
+	public String getName(int id) {
+		return concepts[id].getName();
+	}
+
+	/**
+	 * Returns the ID of the concept with the specified name,
+	 * or -1 if no concept with that name has been created
+	 * @param name
+	 * @return
+	 */
+	public int getId(String name) {
+		Integer id = ids.get(name);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Read the contents of the flag indicating whether
+	 * the last concept added was newly created or if
+	 * the name provided was already in use.
+	 */
+	public boolean getLastAddedWasNewlyCreated() {
+		return lastAddedWasNewlyCreated;
+	}
+
+	/**
+	 * Returns the number of concepts; IDs run from 0 to size() - 1
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns all the concepts, in ID order
+	 * @return
+	 */
+	public Vector<Concept> getAll(){
+		Vector<Concept> ret = new Vector<Concept>(size);
+		for(int i = 0; i < size; i++) ret.add(concepts[i]);
+		return ret;
+	}
+
+}
@@ -0,0 +1,170 @@
+package jCLD.surenet.analysis;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * An immutable, compressed sparse row (CSR) view of the links
+ * in a DiagramNetwork.
+ *
+ * Nodes are numbered 0..size()-1 in the order in which they
+ * are passed in (for a DiagramNetwork, the order of its node
+ * map). The out-links of node v are the edges
+ * outStart(v)..outEnd(v)-1; each edge has a target node and
+ * a polarity bit that is set if the link decreases its target.
+ * Edges within a node are sorted by target. The in-links are
+ * kept the same way, so that sources and sinks can be found
+ * without searching.
+ */
+public class CsrGraph{
+
+	private final Concept[] concepts;     // Node index -> concept
+	private final int[]     nodeOfConcept; // Concept ID -> node index, or -1
+
+	private final int[]     outOffsets;
+	private final int[]     outTargets;
+	private final long[]    negative;     // One bit per out-edge
+
+	private final int[]     inOffsets;
+	private final int[]     inSources;
+
+	/**
+	 * Builds the view from a collection of network nodes
+	 * @param nodes
+	 */
+	public CsrGraph(Collection<DiagramNetwork.Node> nodes) {
+		int n = nodes.size();
+		concepts = new Concept[n];
+		int maxId = -1;
+		int i = 0;
+		for(DiagramNetwork.Node node: nodes) {
+			concepts[i++] = node.concept;
+			maxId = Math.max(maxId, node.concept.getId());
+		}
+		nodeOfConcept = new int[maxId + 1];
+		Arrays.fill(nodeOfConcept, -1);
+		for(int v = 0; v < n; v++) nodeOfConcept[concepts[v].getId()] = v;
+
+		// Out-links, each row sorted by target
+		outOffsets = new int[n + 1];
+		i = 0;
+		for(DiagramNetwork.Node node: nodes) {
+			outOffsets[i + 1] = outOffsets[i] + node.outwardLinks.size();
+			i++;
+		}
+		int edges  = outOffsets[n];
+		outTargets = new int[edges];
+		negative   = new long[(edges + 63) >>> 6];
+		long[] row = new long[16];
+		i = 0;
+		for(DiagramNetwork.Node node: nodes) {
+			int count = 0;
+			if(row.length < node.outwardLinks.size()) row = new long[node.outwardLinks.size()];
+			// Pack target and polarity together so the row can be sorted as primitives
+			for(Link l: node.outwardLinks.values()) row[count++] = ((long)nodeOfConcept[l.target.getId()] << 1) | (l.influence == Influence.DECREASES ? 1 : 0);
+			Arrays.sort(row, 0, count);
+			for(int k = 0, e = outOffsets[i]; k < count; k++, e++) {
+				outTargets[e] = (int)(row[k] >>> 1);
+				if((row[k] & 1) != 0) negative[e >>> 6] |= 1L << e;
+			}
+			i++;
+		}
+
+		// In-links, built from the out-links so they are also sorted by source
+		inOffsets = new int[n + 1];
+		for(int e = 0; e < edges; e++) inOffsets[outTargets[e] + 1]++;
+		for(int v = 0; v < n; v++) inOffsets[v + 1] += inOffsets[v];
+		inSources = new int[edges];
+		int[] fill = Arrays.copyOf(inOffsets, n);
+		for(int v = 0; v < n; v++) {
+			for(int e = outOffsets[v]; e < outOffsets[v + 1]; e++) inSources[fill[outTargets[e]]++] = v;
+		}
+	}
+
+	/**
+	 * Returns the number of nodes
+	 * @return
+	 */
+	public int size() {
+		return concepts.length;
+	}
+
+	/**
+	 * Returns the number of links
+	 * @return
+	 */
+	public int edgeCount() {
+		return outTargets.length;
+	}
+
+	public Concept getConcept(int v) {
+		return concepts[v];
+	}
+
+	/**
+	 * Returns the node index of the concept, or -1 if
+	 * the concept is not in this graph
+	 * @param c
+	 * @return
+	 */
+	public int indexOf(Concept c) {
+		int id = c.getId();
+		return id < nodeOfConcept.length ? nodeOfConcept[id] : -1;
+	}
+
+	public int outStart(int v) {
+		return outOffsets[v];
+	}
+
+	public int outEnd(int v) {
+		return outOffsets[v + 1];
+	}
+
+	public int outDegree(int v) {
+		return outOffsets[v + 1] - outOffsets[v];
+	}
+
+	/**
+	 * Returns the target node of out-edge e
+	 * @param e
+	 * @return
+	 */
+	public int target(int e) {
+		return outTargets[e];
+	}
+
+	/**
+	 * Returns true if out-edge e is a negative (decreasing) influence
+	 * @param e
+	 * @return
+	 */
+	public boolean isNegative(int e) {
+		return (negative[e >>> 6] & (1L << e)) != 0;
+	}
+
+	public Influence getInfluence(int e) {
+		return isNegative(e) ? Influence.DECREASES : Influence.INCREASES;
+	}
+
+	public int inStart(int v) {
+		return inOffsets[v];
+	}
+
+	public int inEnd(int v) {
+		return inOffsets[v + 1];
+	}
+
+	public int inDegree(int v) {
+		return inOffsets[v + 1] - inOffsets[v];
+	}
+
+	/**
+	 * Returns the source node of in-edge e
+	 * @param e
+	 * @return
+	 */
+	public int source(int e) {
+		return inSources[e];
+	}
+
+}
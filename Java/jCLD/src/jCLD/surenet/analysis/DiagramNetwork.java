@@ -1,11 +1,9 @@
 package jCLD.surenet.analysis;
 
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 import java.util.TreeMap;
-import java.util.Vector;
+import java.util.stream.Stream;
 
 public class DiagramNetwork{
 	
@@ -67,58 +65,137 @@ public class DiagramNetwork{
 	}
 
 	
+	/**
+	 * Removes a node and every link to or from it. Only the
+	 * node's neighbors are visited.
+	 * @param C
+	 */
 	public void removeNode(Concept C) {
-		for(Node n: nodes.values()) n.removeLinksTo(C);
-		nodes.remove(C);
+		Node node = nodes.remove(C);
+		if(node == null) return;
+		for(Concept target: node.outwardLinks.keySet()) {
+			Node n = nodes.get(target);
+			if(n != null) n.inwardLinks.remove(C);
+		}
+		for(Concept source: node.inwardLinks.keySet()) {
+			Node n = nodes.get(source);
+			if(n != null) n.outwardLinks.remove(C);
+		}
 	}
 	
+	/**
+	 * Removes all sources and sinks, including any that are created
+	 * by removing others. The cascade is worked out by a
+	 * SourceSinkPruner on a CSR view of the network, as loop
+	 * enumeration does, and the nodes it prunes are then removed.
+	 * @return the number of nodes removed
+	 */
 	public int removeSourcesAndSinks() {
-		int countOfRemoved = 0;
-		Set<Concept> toRemove = new HashSet<Concept>();
-		for(Node n: nodes.values()) if(n.nodeIsSource() || n.nodeIsSink()) toRemove.add(n.concept);
-		for(Concept c: toRemove) {
-			for(Node n: nodes.values()) n.removeLinksTo(c);
-			nodes.remove(c);
-			countOfRemoved++;
+		CsrGraph         graph          = toCsrGraph();
+		SourceSinkPruner pruner         = new SourceSinkPruner(graph);
+		int              countOfRemoved = 0;
+		for(int v = 0; v < graph.size(); v++) {
+			if(!pruner.isAlive(v)) {
+				removeNode(graph.getConcept(v));
+				countOfRemoved++;
+			}
 		}
 		return countOfRemoved;
 	}
 	
+	/**
+	 * Builds an immutable CSR view of the current nodes and links.
+	 * Node indices follow the order of the node map.
+	 * @return
+	 */
+	public CsrGraph toCsrGraph() {
+		return new CsrGraph(nodes.values());
+	}
+	
 	public LoopSet getLoops() {
 		return getLoops(true);
 	}
 	
+	/**
+	 * Finds all the loops in the network. The search runs on
+	 * a CSR view of the network, so the network itself is left
+	 * unchanged. Independent parts of the network are searched
+	 * in parallel.
+	 * @param verbose
+	 * @return
+	 */
 	public LoopSet getLoops(boolean verbose){
-		while(removeSourcesAndSinks() > 0) { }
-		LoopSet loopSet = new LoopSet();
-		Vector<Node> allNodes = new Vector<Node>();
-		allNodes.addAll(nodes.values());
-		for(Node n: allNodes) {
-			if(!n.nodeIsSink() && !n.nodeIsSource()) {
-				getLoops(n, new Sequence(), loopSet, verbose);
-				// Once we have found all the loops that pass through this node, we can remove it
-				removeNode(n.concept);
-				while(removeSourcesAndSinks() > 0) { }
-			}
-		}
+		return getLoops(EnumerationLimits.NONE, verbose);
+	}
+	
+	/**
+	 * Finds the loops in the network, within the specified limits.
+	 * The LoopSet's EnumerationReport says whether the result was
+	 * cut short.
+	 * @param limits
+	 * @param verbose
+	 * @return
+	 */
+	public LoopSet getLoops(EnumerationLimits limits, boolean verbose){
+		LoopSet        loopSet    = new LoopSet();
+		LoopEnumerator enumerator = new LoopEnumerator(toCsrGraph());
+		enumerator.setLimits(limits);
+		loopSet.setEnumerationReport(enumerator.enumerate(loopSet, verbose));
 		loopSet.finalize();
 		return loopSet;
 	}
 	
-	public void getLoops(Node n, Sequence s, LoopSet loopSet, boolean verbose) {
-		for(Map.Entry<Concept, Link> entry: n.outwardLinks.entrySet()) {
-			Sequence nextSequence = new Sequence(s); // Copy original sequence
-			nextSequence.addLink(entry.getValue());
-			if     (nextSequence.isLoop) {
-				
-				if(verbose) System.out.println("FOUND LOOP " + (loopSet.getSize() + 1) + ": " + nextSequence.toString());
-				String asAdded = loopSet.addLoop(nextSequence).toString();
-				if(verbose) System.out.println("ADDED AS " + asAdded);
-			}
-			else if(nextSequence.isClosed) {
-			} // End of recursion; a link has been added to a node that was already in the sequence but was not the initial node
-			else   getLoops(nodes.get(entry.getKey()), nextSequence, loopSet, verbose); // Recurse downward
-		}
+	/**
+	 * Passes each loop in the network to the visitor as it is found,
+	 * without collecting them. Loops are found in parallel, so the
+	 * visitor must be thread-safe.
+	 * @param visitor
+	 */
+	public EnumerationReport forEachLoop(LoopVisitor visitor) {
+		return forEachLoop(visitor, EnumerationLimits.NONE);
+	}
+	
+	/**
+	 * Passes each loop in the network to the visitor, within the
+	 * specified limits
+	 * @param visitor
+	 * @param limits
+	 * @return
+	 */
+	public EnumerationReport forEachLoop(LoopVisitor visitor, EnumerationLimits limits) {
+		LoopEnumerator enumerator = new LoopEnumerator(toCsrGraph());
+		enumerator.setLimits(limits);
+		return enumerator.forEachLoop(visitor);
+	}
+	
+	public LoopCountEstimate estimateLoopCount() {
+		return estimateLoopCount(LoopCountEstimator.DEFAULT_EXACT_LENGTH, LoopCountEstimator.DEFAULT_SAMPLES);
+	}
+	
+	/**
+	 * Estimates the number of loops in the network and their lengths,
+	 * without finding them all, so that the cost of getLoops and of
+	 * scoring can be judged first. Loops of up to exactLength links
+	 * are counted exactly; longer ones are estimated from random walks.
+	 * @param exactLength
+	 * @param samples
+	 * @return
+	 */
+	public LoopCountEstimate estimateLoopCount(int exactLength, int samples) {
+		LoopCountEstimator estimator = new LoopCountEstimator(toCsrGraph());
+		estimator.setExactLength(exactLength);
+		estimator.setSamples(samples);
+		return estimator.estimate();
+	}
+	
+	/**
+	 * Returns a stream of the loops in the network, found on demand,
+	 * each as an array of concept IDs starting with the standard first concept
+	 * @param parallel
+	 * @return
+	 */
+	public Stream<int[]> streamLoops(boolean parallel) {
+		return new LoopEnumerator(toCsrGraph()).stream(parallel);
 	}
 	
 }
@@ -0,0 +1,32 @@
+package jCLD.surenet.analysis;
+
+/**
+ * Limits on a loop enumeration, so that a new diagram can be
+ * tried out quickly even if it has far too many loops to find
+ * them all. A value of zero means 'no limit'.
+ *
+ *  - maxLoopLength    = loops with more links than this are not followed
+ *  - maxLoops         = the search stops once this many loops have been found
+ *  - timeBudgetMillis = the search stops once this much time has passed
+ *
+ * When any limit is hit the EnumerationReport says so.
+ */
+public class EnumerationLimits{
+
+	public static final EnumerationLimits NONE = new EnumerationLimits(0, 0, 0);
+
+	public final int  maxLoopLength;
+	public final long maxLoops;
+	public final long timeBudgetMillis;
+
+	public EnumerationLimits(int maxLength, long maxCount, long budgetMillis) {
+		maxLoopLength    = maxLength;
+		maxLoops         = maxCount;
+		timeBudgetMillis = budgetMillis;
+	}
+
+	public boolean isUnlimited() {
+		return maxLoopLength <= 0 && maxLoops <= 0 && timeBudgetMillis <= 0;
+	}
+
+}
@@ -0,0 +1,56 @@
+package jCLD.surenet.analysis;
+
+/**
+ * Describes how a loop enumeration ended, and if any limit
+ * was hit, how much of the search was cut off.
+ */
+public class EnumerationReport{
+
+	/**
+	 * Why the enumeration ended:
+	 *
+	 *  - Complete      = every start node was searched
+	 *  - Loop limit    = the maximum number of loops was reached
+	 *  - Time limit    = the time budget ran out
+	 */
+	public static enum Outcome {
+		COMPLETE,
+		LOOP_LIMIT,
+		TIME_LIMIT
+	}
+
+	public final Outcome outcome;
+	public final long    loopsFound;
+	public final int     startNodes;            // Start nodes that could be on a loop
+	public final int     startNodesCompleted;   // Start nodes whose loops were all searched
+	public final long    pathsCutByLength;      // Paths not followed because of the maximum loop length
+	public final long    elapsedMillis;
+
+	public EnumerationReport(Outcome o, long found, int starts, int completed, long cut, long elapsed) {
+		outcome             = o;
+		loopsFound          = found;
+		startNodes          = starts;
+		startNodesCompleted = completed;
+		pathsCutByLength    = cut;
+		elapsedMillis       = elapsed;
+	}
+
+	/**
+	 * Returns true if there may be loops that were not found,
+	 * either because the search stopped early or because some
+	 * loops were longer than the maximum length
+	 * @return
+	 */
+	public boolean isTruncated() {
+		return outcome != Outcome.COMPLETE || pathsCutByLength > 0;
+	}
+
+	public String toString() {
+		String ret = (isTruncated() ? "TRUNCATED: " : "COMPLETE: ") + loopsFound + " loops in " + elapsedMillis + " ms; " +
+		             startNodesCompleted + " of " + startNodes + " start nodes searched";
+		if(outcome != Outcome.COMPLETE) ret += "; stopped at " + (outcome == Outcome.LOOP_LIMIT ? "loop limit" : "time limit");
+		if(pathsCutByLength > 0)        ret += "; " + pathsCutByLength + " paths cut at maximum loop length";
+		return ret;
+	}
+
+}
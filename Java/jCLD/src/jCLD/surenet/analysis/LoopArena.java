@@ -0,0 +1,224 @@
+package jCLD.surenet.analysis;
+
+import java.util.Arrays;
+
+/**
+ * Compact storage for a set of loops.
+ *
+ * The concept IDs of every loop are kept end to end in a single
+ * int array, with an offsets array marking where each loop starts,
+ * and one polarity bit per link (set if the link is a negative
+ * influence). Loop i has concept IDs concepts[offset(i)] ..
+ * concepts[offset(i + 1) - 1]; link k of loop i runs from its k'th
+ * concept to the next (the last link runs back to the first).
+ *
+ * Loops are stored in the standard position (the concept with
+ * the highest ID first, as Sequence.rotateToStandard leaves
+ * them), and an open-addressing index over the stored IDs and
+ * polarities finds duplicates in O(length).
+ *
+ * The arena is not thread-safe.
+ */
+public class LoopArena{
+
+	private int[]     concepts  = new int[256];
+	private long[]    negative  = new long[4];   // One bit per link
+	private int[]     offsets   = new int[65];
+	private int[]     hashes    = new int[65];
+	private int       count     = 0;
+
+	private int[]     table     = new int[128];  // Holds loop index + 1; zero is empty
+	private boolean   lastAddedWasNew = false;
+
+	private Concept[] conceptsById = new Concept[16];
+
+	/**
+	 * Adds a loop, given as its concepts and the polarity of the link
+	 * from each concept to the next, rotating it to the standard position.
+	 * If the same loop is already stored, nothing is added.
+	 * @param loopConcepts
+	 * @param loopNegative
+	 * @param length
+	 * @return the index of the loop (new or existing)
+	 */
+	public int add(Concept[] loopConcepts, boolean[] loopNegative, int length) {
+		int first = 0;
+		for(int i = 1; i < length; i++) if(loopConcepts[i].compareTo(loopConcepts[first]) < 0) first = i;
+
+		int hash = 1;
+		for(int k = 0, i = first; k < length; k++, i = (i + 1 == length ? 0 : i + 1)) {
+			hash = (31 * hash + loopConcepts[i].getId()) * 2 + (loopNegative[i] ? 1 : 0);
+		}
+		hash *= 0x9E3779B9;
+		hash ^= hash >>> 16;
+
+		int mask = table.length - 1;
+		int slot = hash & mask;
+		while(table[slot] != 0) {
+			int loop = table[slot] - 1;
+			if(hashes[loop] == hash && matches(loop, loopConcepts, loopNegative, length, first)) {
+				lastAddedWasNew = false;
+				return loop;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		// Append
+		if(count + 1 == offsets.length) {
+			offsets = Arrays.copyOf(offsets, offsets.length * 2);
+			hashes  = Arrays.copyOf(hashes,  hashes.length * 2);
+		}
+		int start = offsets[count];
+		int end   = start + length;
+		if(end > concepts.length) concepts = Arrays.copyOf(concepts, Math.max(end, concepts.length * 2));
+		if(((end + 63) >>> 6) > negative.length) negative = Arrays.copyOf(negative, Math.max((end + 63) >>> 6, negative.length * 2));
+		for(int k = 0, i = first; k < length; k++, i = (i + 1 == length ? 0 : i + 1)) {
+			Concept c = loopConcepts[i];
+			concepts[start + k] = c.getId();
+			if(loopNegative[i]) negative[(start + k) >>> 6] |= 1L << (start + k);
+			if(c.getId() >= conceptsById.length) conceptsById = Arrays.copyOf(conceptsById, Math.max(c.getId() + 1, conceptsById.length * 2));
+			conceptsById[c.getId()] = c;
+		}
+		int loop = count++;
+		offsets[count] = end;
+		hashes[loop]   = hash;
+		table[slot]    = loop + 1;
+		if(count * 2 > table.length) rehash();
+		lastAddedWasNew = true;
+		return loop;
+	}
+
+	/**
+	 * Returns true if the last call to add stored a new loop,
+	 * false if the loop was already present
+	 * @return
+	 */
+	public boolean getLastAddedWasNew() {
+		return lastAddedWasNew;
+	}
+
+	/**
+	 * Returns the number of loops stored
+	 * @return
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Returns the number of links (and concepts) in loop i
+	 * @param i
+	 * @return
+	 */
+	public int length(int i) {
+		return offsets[i + 1] - offsets[i];
+	}
+
+	/**
+	 * Returns the position of the first concept of loop i in
+	 * the array returned by getConceptData()
+	 * @param i
+	 * @return
+	 */
+	public int offset(int i) {
+		return offsets[i];
+	}
+
+	/**
+	 * Returns the ID of the k'th concept of loop i
+	 * @param i
+	 * @param k
+	 * @return
+	 */
+	public int conceptId(int i, int k) {
+		return concepts[offsets[i] + k];
+	}
+
+	public Concept getConcept(int i, int k) {
+		return conceptsById[concepts[offsets[i] + k]];
+	}
+
+	/**
+	 * Returns the concept with the specified ID, or null if no
+	 * stored loop contains it
+	 * @param id
+	 * @return
+	 */
+	public Concept getConceptById(int id) {
+		return id < conceptsById.length ? conceptsById[id] : null;
+	}
+
+	/**
+	 * Returns true if the link from the k'th concept of loop i
+	 * to the next is a negative influence
+	 * @param i
+	 * @param k
+	 * @return
+	 */
+	public boolean isNegative(int i, int k) {
+		int p = offsets[i] + k;
+		return (negative[p >>> 6] & (1L << p)) != 0;
+	}
+
+	/**
+	 * Returns the number of negative links in loop i
+	 * @param i
+	 * @return
+	 */
+	public int negativeCount(int i) {
+		int ret = 0;
+		for(int p = offsets[i]; p < offsets[i + 1]; p++) if((negative[p >>> 6] & (1L << p)) != 0) ret++;
+		return ret;
+	}
+
+	/**
+	 * Returns true if loop i contains the concept with the specified ID
+	 * @param i
+	 * @param conceptId
+	 * @return
+	 */
+	public boolean contains(int i, int conceptId) {
+		for(int p = offsets[i]; p < offsets[i + 1]; p++) if(concepts[p] == conceptId) return true;
+		return false;
+	}
+
+	/**
+	 * Returns a copy of the concept IDs of loop i
+	 * @param i
+	 * @return
+	 */
+	public int[] copyConceptIds(int i) {
+		return Arrays.copyOfRange(concepts, offsets[i], offsets[i + 1]);
+	}
+
+	/**
+	 * Returns the concept ID array that all the loops are stored in,
+	 * for code that reads loops in place. The array belongs to the
+	 * arena, may be replaced when loops are added, and must not be
+	 * modified.
+	 * @return
+	 */
+	int[] getConceptData() {
+		return concepts;
+	}
+
+	private boolean matches(int loop, Concept[] loopConcepts, boolean[] loopNegative, int length, int first) {
+		if(length(loop) != length) return false;
+		int start = offsets[loop];
+		for(int k = 0, i = first; k < length; k++, i = (i + 1 == length ? 0 : i + 1)) {
+			if(concepts[start + k] != loopConcepts[i].getId() || isNegative(loop, k) != loopNegative[i]) return false;
+		}
+		return true;
+	}
+
+	private void rehash() {
+		table = new int[table.length * 2];
+		int mask = table.length - 1;
+		for(int loop = 0; loop < count; loop++) {
+			int slot = hashes[loop] & mask;
+			while(table[slot] != 0) slot = (slot + 1) & mask;
+			table[slot] = loop + 1;
+		}
+	}
+
+}
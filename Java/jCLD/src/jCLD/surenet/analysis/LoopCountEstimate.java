@@ -0,0 +1,108 @@
+package jCLD.surenet.analysis;
+
+import jCLD.surenet.utils.HalfFloatMatrix;
+
+/**
+ * An estimate of the number of loops in a network, by length,
+ * and of what comparing them all would cost. Counts for lengths
+ * up to getExactUpTo() are exact; the rest are sampled, and the
+ * standard error applies to the sampled part of the total.
+ */
+public class LoopCountEstimate{
+
+	private final double[] byLength;
+	private final int      exactUpTo;
+	private final double   standardError;
+	private final int      walks;
+	private final long     elapsedMillis;
+
+	public LoopCountEstimate(double[] counts, int exact, double error, int walkCount, long elapsed) {
+		byLength      = counts;
+		exactUpTo     = exact;
+		standardError = error;
+		walks         = walkCount;
+		elapsedMillis = elapsed;
+	}
+
+	/**
+	 * Returns the estimated number of loops with the specified number of links
+	 * @param length
+	 * @return
+	 */
+	public double getCount(int length) {
+		return length < byLength.length ? byLength[length] : 0;
+	}
+
+	/**
+	 * Returns the longest length with a non-zero estimate
+	 * @return
+	 */
+	public int getLongest() {
+		for(int l = byLength.length - 1; l > 0; l--) if(byLength[l] > 0) return l;
+		return 0;
+	}
+
+	public int getExactUpTo() {
+		return exactUpTo;
+	}
+
+	public double getTotal() {
+		double ret = 0;
+		for(double c: byLength) ret += c;
+		return ret;
+	}
+
+	public double getStandardError() {
+		return standardError;
+	}
+
+	/**
+	 * Returns the projected number of distinct pairs of loops, which
+	 * is the number of distance calculations a full scoring could need
+	 * @return
+	 */
+	public double getProjectedComparisons() {
+		double n = Math.round(getTotal());
+		return n * (n - 1) / 2;
+	}
+
+	/**
+	 * Returns the projected number of elements in the LoopSet's HalfFloatMatrix
+	 * @return
+	 */
+	public double getProjectedMatrixElements() {
+		return getProjectedComparisons() + 1;
+	}
+
+	/**
+	 * Returns the projected size of the LoopSet's HalfFloatMatrix, in bytes
+	 * @return
+	 */
+	public double getProjectedMatrixBytes() {
+		return getProjectedMatrixElements() * Float.BYTES;
+	}
+
+	/**
+	 * Returns true if a HalfFloatMatrix can be made for the projected number of loops
+	 * @return
+	 */
+	public boolean matrixFits() {
+		return Math.round(getTotal()) <= HalfFloatMatrix.MAX_SIZE;
+	}
+
+	public String toString() {
+		StringBuilder ret = new StringBuilder();
+		ret.append(String.format("ESTIMATED LOOPS: %.4g (+/- %.2g) from %d walks in %d ms%n", getTotal(), standardError, walks, elapsedMillis));
+		int longest = getLongest();
+		for(int l = 1; l <= longest; l++) {
+			if(byLength[l] == 0) continue;
+			if(l <= exactUpTo) ret.append(String.format("LOOPS OF SIZE: %d = %.0f%n", l, byLength[l]));
+			else               ret.append(String.format("LOOPS OF SIZE: %d = %.3g (estimated)%n", l, byLength[l]));
+		}
+		ret.append(String.format("PROJECTED COMPARISONS: %.4g%n", getProjectedComparisons()));
+		ret.append(String.format("PROJECTED MATRIX: %.4g elements, %.4g MB%s", getProjectedMatrixElements(), getProjectedMatrixBytes() / (1024 * 1024),
+		                         matrixFits() ? "" : " (too large for HalfFloatMatrix)"));
+		return ret.toString();
+	}
+
+}
@@ -0,0 +1,188 @@
+package jCLD.surenet.analysis;
+
+import java.util.Random;
+
+/**
+ * Estimates how many loops a CsrGraph has, and how long they
+ * are, without enumerating them all.
+ *
+ * Loops up to a short length are counted exactly, using a
+ * CircuitSearch with a maximum length. If there are too many
+ * even of those, every length is estimated instead.
+ *
+ * Longer loops are estimated with Knuth's path-sampling method:
+ *
+ *   Donald E. Knuth, "Estimating the efficiency of backtrack
+ *   programs", Mathematics of Computation 29(129), 1975.
+ *
+ * Each loop is found from its lowest-index node s, by a path
+ * that only uses nodes with a higher index than s. A random walk
+ * from s picks one of the unused next nodes at each step; the
+ * product of the numbers of choices made so far is an unbiased
+ * estimate of the number of such paths, so each time the walk
+ * could close back to s, that product is added to the estimate
+ * for loops of that length. Start nodes are picked at random
+ * and several walks are made from each, which also gives a
+ * standard error for the total.
+ */
+public class LoopCountEstimator{
+
+	public static final int  DEFAULT_EXACT_LENGTH = 4;
+	public static final int  DEFAULT_SAMPLES      = 10000;
+	public static final long EXACT_LOOP_BUDGET    = 1000000;
+	private static final int WALKS_PER_START      = 16;
+
+	private final CsrGraph                    graph;
+	private final StronglyConnectedComponents components;
+	private final int[]                       startNodes;
+	private int                               exactLength = DEFAULT_EXACT_LENGTH;
+	private int                               samples     = DEFAULT_SAMPLES;
+	private Random                            random      = new Random();
+
+	/**
+	 * Prepares an estimator for the graph
+	 * @param g
+	 */
+	public LoopCountEstimator(CsrGraph g) {
+		graph      = g;
+		components = new StronglyConnectedComponents(g, new SourceSinkPruner(g).getAliveMask());
+		int count = 0;
+		for(int c = 0; c < components.getCount(); c++) if(components.isCyclic(c)) count += components.size(c);
+		startNodes = new int[count];
+		count = 0;
+		for(int c = 0; c < components.getCount(); c++) {
+			if(!components.isCyclic(c)) continue;
+			for(int i = 0; i < components.size(c); i++) startNodes[count++] = components.member(c, i);
+		}
+	}
+
+	/**
+	 * Sets the longest loops that are counted exactly; zero to
+	 * estimate every length
+	 * @param length
+	 */
+	public void setExactLength(int length) {
+		exactLength = length;
+	}
+
+	/**
+	 * Sets the number of random walks
+	 * @param count
+	 */
+	public void setSamples(int count) {
+		samples = count;
+	}
+
+	/**
+	 * Sets the seed for the random walks, so that an estimate can be repeated
+	 * @param seed
+	 */
+	public void setSeed(long seed) {
+		random = new Random(seed);
+	}
+
+	public LoopCountEstimate estimate() {
+		long           startTime = System.currentTimeMillis();
+		CircuitSearch  search    = new CircuitSearch(graph);
+		int            n         = graph.size();
+		double[]       byLength  = new double[n + 1];
+		int            exactUpTo = countExactly(search, byLength);
+
+		// Random walks, in groups from the same start node
+		int      groups    = startNodes.length == 0 ? 0 : Math.max(1, samples / WALKS_PER_START);
+		double[] sampled   = new double[n + 1];
+		double   sum       = 0;
+		double   sumSquare = 0;
+		boolean[] onPath   = new boolean[n];
+		int[]     path     = new int[n];
+		for(int g = 0; g < groups; g++) {
+			int s = startNodes[random.nextInt(startNodes.length)];
+			double groupTotal = 0;
+			if(search.start(s, components.getLabels(), null)) {
+				for(int w = 0; w < WALKS_PER_START; w++) groupTotal += walk(search, s, exactUpTo, sampled, onPath, path);
+			}
+			groupTotal = groupTotal * startNodes.length / WALKS_PER_START;
+			sum       += groupTotal;
+			sumSquare += groupTotal * groupTotal;
+		}
+
+		// Each walk estimates the loops through its start node; scale up to all the start nodes
+		double scale = groups == 0 ? 0 : (double)startNodes.length / ((double)groups * WALKS_PER_START);
+		for(int l = exactUpTo + 1; l <= n; l++) byLength[l] = sampled[l] * scale;
+
+		double standardError = 0;
+		if(groups > 1) {
+			double mean = sum / groups;
+			standardError = Math.sqrt(Math.max(0, (sumSquare - groups * mean * mean) / (groups - 1)) / groups);
+		}
+		return new LoopCountEstimate(byLength, exactUpTo, standardError, groups * WALKS_PER_START, System.currentTimeMillis() - startTime);
+	}
+
+	/**
+	 * Counts the loops of up to exactLength links
+	 * @return the length up to which the counts are exact; zero if
+	 *         there were too many short loops to count
+	 */
+	private int countExactly(CircuitSearch search, double[] byLength) {
+		if(exactLength <= 0) return 0;
+		search.setMaxLength(exactLength);
+		long found = 0;
+		for(int s: startNodes) {
+			if(!search.start(s, components.getLabels(), null)) continue;
+			while(search.next()) {
+				if(++found > EXACT_LOOP_BUDGET) {
+					System.out.println("More than " + EXACT_LOOP_BUDGET + " loops of up to " + exactLength + " links; estimating all lengths");
+					for(int l = 0; l < byLength.length; l++) byLength[l] = 0;
+					search.setMaxLength(0);
+					return 0;
+				}
+				byLength[search.length()]++;
+			}
+		}
+		search.setMaxLength(0);
+		return Math.min(exactLength, graph.size());
+	}
+
+	/**
+	 * Makes one random walk from s, adding its estimates for loops
+	 * longer than skipUpTo to sampled
+	 * @return the walk's estimate of the number of those loops
+	 */
+	private double walk(CircuitSearch search, int s, int skipUpTo, double[] sampled, boolean[] onPath, int[] path) {
+		double weight = 1;
+		double total  = 0;
+		int    depth  = 0;
+		int    v      = s;
+		onPath[s]     = true;
+		path[depth++] = s;
+		while(true) {
+			// Count the ways to go on, and whether the path can close here
+			int     choices = 0;
+			boolean closes  = false;
+			for(int e = graph.outStart(v); e < graph.outEnd(v); e++) {
+				int w = graph.target(e);
+				if(w == s) closes = true;
+				else if(search.inComponent(w) && !onPath[w]) choices++;
+			}
+			if(closes && depth > skipUpTo) {
+				sampled[depth] += weight;
+				total          += weight;
+			}
+			if(choices == 0) break;
+			int pick = random.nextInt(choices);
+			for(int e = graph.outStart(v); e < graph.outEnd(v); e++) {
+				int w = graph.target(e);
+				if(w != s && search.inComponent(w) && !onPath[w] && pick-- == 0) {
+					v = w;
+					break;
+				}
+			}
+			weight       *= choices;
+			onPath[v]     = true;
+			path[depth++] = v;
+		}
+		for(int i = 0; i < depth; i++) onPath[path[i]] = false;
+		return total;
+	}
+
+}
@@ -0,0 +1,427 @@
+package jCLD.surenet.analysis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Finds all the loops in a CsrGraph.
+ *
+ * Sources and sinks are pruned first, and the nodes that remain
+ * are split into strongly connected components. A loop never
+ * crosses from one component to another, so each component that
+ * contains a loop is searched (with Johnson's algorithm) on its
+ * own fork-join task, and loops are added to the LoopSet as they
+ * are found.
+ *
+ * Within a component, every start node s is its own task, which
+ * only uses nodes with a higher index than s. Each loop is then
+ * found exactly once, from its lowest-index node, and since nodes
+ * are indexed in Concept order this is the same position that
+ * Sequence.rotateToStandard would rotate it to. The tasks share
+ * nothing but the read-only graph, so they need no locks. A start
+ * node with a large component is split further, one task for each
+ * of its first links, so that a hub does not keep one worker busy
+ * on its own.
+ *
+ * Loops can also be streamed instead of collected: forEachLoop
+ * passes each loop to a LoopVisitor as it is found, and
+ * spliterator() / stream() hand out loops one at a time on
+ * demand, so networks with too many loops to hold in memory
+ * can still be counted, filtered or written out.
+ *
+ * EnumerationLimits can cap the loop length, the number of loops
+ * and the running time; enumerate and forEachLoop return an
+ * EnumerationReport saying whether (and how much) the result was
+ * cut short.
+ */
+public class LoopEnumerator{
+
+	/**
+	 * Called by the search tasks for each circuit found; may be
+	 * called from several threads at once
+	 */
+	private interface CircuitHandler{
+		public void found(CircuitSearch search);
+	}
+
+	private final CsrGraph                    graph;
+	private final StronglyConnectedComponents components;
+	private final int[]                       startNodes;    // Members of the cyclic components, component by component
+	// A start node whose component has at least this many nodes is split by first link
+	private static final int SPLIT_COMPONENT_SIZE = 32;
+	
+	private boolean                           parallel = true;
+	private EnumerationLimits                 limits   = EnumerationLimits.NONE;
+	private final Queue<CircuitSearch>        spareSearches = new ConcurrentLinkedQueue<CircuitSearch>();
+
+	/**
+	 * Prunes the graph and splits it into components
+	 * @param g
+	 */
+	public LoopEnumerator(CsrGraph g) {
+		graph      = g;
+		components = new StronglyConnectedComponents(g, new SourceSinkPruner(g).getAliveMask());
+		int count  = 0;
+		for(int c = 0; c < components.getCount(); c++) if(components.isCyclic(c)) count += components.size(c);
+		startNodes = new int[count];
+		count      = 0;
+		for(int c = 0; c < components.getCount(); c++) {
+			if(components.isCyclic(c)) for(int i = 0; i < components.size(c); i++) startNodes[count++] = components.member(c, i);
+		}
+	}
+
+	/**
+	 * Sets whether components are searched in parallel (the default)
+	 * or one after another on the calling thread
+	 * @param p
+	 */
+	public void setParallel(boolean p) {
+		parallel = p;
+	}
+
+	/**
+	 * Sets the limits for the enumeration. The spliterator only
+	 * uses the maximum loop length; streams can be limited with
+	 * the usual stream operations.
+	 * @param l
+	 */
+	public void setLimits(EnumerationLimits l) {
+		limits = l;
+	}
+
+	public StronglyConnectedComponents getComponents() {
+		return components;
+	}
+
+	/**
+	 * Adds every loop in the graph to the loop set as it is found.
+	 * In parallel mode the tasks take turns to add theirs, locking
+	 * the loop set, so no more than one loop per task is held
+	 * outside it at a time.
+	 * @param loopSet
+	 * @param verbose
+	 * @return
+	 */
+	public EnumerationReport enumerate(LoopSet loopSet, boolean verbose) {
+		if(!parallel) return run(search -> add(loopSet, new FoundLoop(search), verbose));
+		return run(search -> {
+			FoundLoop loop = new FoundLoop(search);
+			synchronized(loopSet) {
+				add(loopSet, loop, verbose);
+			}
+		});
+	}
+
+	/**
+	 * Passes every loop in the graph to the visitor as it is found.
+	 * In parallel mode the visitor is called from several threads.
+	 * @param visitor
+	 * @return
+	 */
+	public EnumerationReport forEachLoop(LoopVisitor visitor) {
+		return run(search -> search.visit(visitor));
+	}
+
+	/**
+	 * Returns a spliterator that finds loops on demand, as arrays of
+	 * concept IDs starting with the standard first concept. It splits
+	 * by start node, so it can be used by parallel streams.
+	 * @return
+	 */
+	public Spliterator<int[]> spliterator() {
+		return new LoopSpliterator(0, startNodes.length);
+	}
+
+	/**
+	 * Returns a stream of loops, as arrays of concept IDs
+	 * @param parallelStream
+	 * @return
+	 */
+	public Stream<int[]> stream(boolean parallelStream) {
+		return StreamSupport.stream(spliterator(), parallelStream);
+	}
+
+	private EnumerationReport run(CircuitHandler handler) {
+		RunState state = new RunState();
+		if(!parallel) runSequentially(handler, state);
+		else {
+			ArrayList<ComponentTask> tasks = new ArrayList<ComponentTask>();
+			for(int c = 0; c < components.getCount(); c++) if(components.isCyclic(c)) tasks.add(new ComponentTask(c, handler, state));
+			// Start the largest components first
+			Collections.sort(tasks, (a, b) -> components.size(b.component) - components.size(a.component));
+			ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+	
+				@Override
+				protected void compute() {
+					invokeAll(tasks);
+				}
+			});
+		}
+		EnumerationReport report = state.report();
+		if(report.isTruncated()) System.out.println("Loop enumeration " + report);
+		return report;
+	}
+
+	/**
+	 * Searches the components one at a time. As each start node is
+	 * finished it is retired, and any nodes that become sources or
+	 * sinks are pruned before the next start node.
+	 */
+	private void runSequentially(CircuitHandler handler, RunState state) {
+		SourceSinkPruner pruner = new SourceSinkPruner(graph);
+		CircuitSearch    search = configure(new CircuitSearch(graph), state);
+		for(int s: startNodes) {
+			if(state.shouldStop()) break;
+			boolean complete = true;
+			if(search.start(s, components.getLabels(), pruner.getAliveMask())) complete = searchFrom(search, handler, state);
+			if(complete) state.startNodesCompleted.incrementAndGet();
+			pruner.retire(s);
+		}
+	}
+
+	/**
+	 * Passes each circuit from an already-started search to the handler
+	 * @return true if all the circuits were found, false if a limit stopped the search
+	 */
+	private static boolean searchFrom(CircuitSearch search, CircuitHandler handler, RunState state) {
+		boolean complete = true;
+		while(search.next()) {
+			if(!state.tryEmit()) {
+				complete = false;
+				break;
+			}
+			handler.found(search);
+		}
+		state.pathsCut.addAndGet(search.takeLengthCutoffs());
+		return complete && !search.wasStopped();
+	}
+
+	private CircuitSearch configure(CircuitSearch search, RunState state) {
+		search.setMaxLength(limits.maxLoopLength);
+		search.setStopCheck(state == null ? null : state::shouldStop);
+		return search;
+	}
+
+	private static void add(LoopSet loopSet, FoundLoop loop, boolean verbose) {
+		if(verbose) System.out.println("FOUND LOOP " + (loopSet.getSize() + 1) + ": " + loop.toString());
+		String asAdded = loopSet.addLoop(loop.concepts, loop.negative, loop.concepts.length).toString();
+		if(verbose) System.out.println("ADDED AS " + asAdded);
+	}
+
+	/**
+	 * A circuit copied out of a search, to be added to a LoopSet
+	 */
+	private static class FoundLoop{
+
+		final Concept[] concepts;
+		final boolean[] negative;
+
+		FoundLoop(CircuitSearch search) {
+			CsrGraph graph = search.getGraph();
+			concepts = new Concept[search.length()];
+			negative = new boolean[search.length()];
+			for(int i = 0; i < concepts.length; i++) {
+				concepts[i] = graph.getConcept(search.nodeAt(i));
+				negative[i] = graph.isNegative(search.edgeAt(i));
+			}
+		}
+
+		public String toString() {
+			String ret = "LOOP: " + concepts[0].getId();
+			for(int i = 0; i < concepts.length; i++) ret += (negative[i] ? "-" : "+") + (i == concepts.length - 1 ? "{" + concepts[0].getId() + "}" : concepts[i + 1].getId());
+			return ret;
+		}
+	}
+
+	private CircuitSearch acquireSearch(RunState state) {
+		CircuitSearch search = spareSearches.poll(); // Searches are sized to the whole graph, so re-use them
+		return configure(search == null ? new CircuitSearch(graph) : search, state);
+	}
+	
+	private void releaseSearch(CircuitSearch search) {
+		spareSearches.add(search);
+	}
+
+	/**
+	 * Finds the loops in one component, with one task for each start node
+	 */
+	private class ComponentTask extends RecursiveAction{
+
+		private static final long serialVersionUID = 1L;
+
+		final int            component;
+		final CircuitHandler handler;
+		final RunState       state;
+
+		ComponentTask(int c, CircuitHandler h, RunState st) {
+			component = c;
+			handler   = h;
+			state     = st;
+		}
+
+		@Override
+		protected void compute() {
+			List<StartNodeTask> tasks = new ArrayList<StartNodeTask>();
+			for(int i = 0; i < components.size(component); i++) {
+				tasks.add(new StartNodeTask(components.member(component, i), -1, -1, handler, state));
+			}
+			invokeAll(tasks);
+		}
+	}
+
+	/**
+	 * Finds the loops whose lowest-index node is the start node. If
+	 * firstEdge is -1, all of the start node's links are followed and
+	 * the task may split itself; otherwise only the links in
+	 * firstEdge..lastEdge-1 are followed.
+	 */
+	private class StartNodeTask extends RecursiveAction{
+
+		private static final long serialVersionUID = 1L;
+
+		final int            start;
+		final int            firstEdge;
+		final int            lastEdge;
+		final CircuitHandler handler;
+		final RunState       state;
+
+		StartNodeTask(int s, int first, int last, CircuitHandler h, RunState st) {
+			start     = s;
+			firstEdge = first;
+			lastEdge  = last;
+			handler   = h;
+			state     = st;
+		}
+
+		@Override
+		protected void compute() {
+			if(state.shouldStop()) return;
+			CircuitSearch search = acquireSearch(state);
+			boolean       found;
+			if(firstEdge == -1) found = search.start(start, components.getLabels(), null);
+			else                found = search.start(start, components.getLabels(), null, firstEdge, lastEdge);
+			if(found && firstEdge == -1 && search.componentSize() >= SPLIT_COMPONENT_SIZE) {
+				// A hub: give each first link that stays in the component its own task
+				List<StartNodeTask> tasks = new ArrayList<StartNodeTask>();
+				for(int e = graph.outStart(start); e < graph.outEnd(start); e++) {
+					if(search.inComponent(graph.target(e))) tasks.add(new StartNodeTask(start, e, e + 1, handler, state));
+				}
+				if(tasks.size() > 1) {
+					releaseSearch(search);
+					invokeAll(tasks);
+					if(!state.shouldStop()) state.startNodesCompleted.incrementAndGet();
+					return;
+				}
+			}
+			boolean complete = found ? searchFrom(search, handler, state) : true;
+			if(complete && firstEdge == -1) state.startNodesCompleted.incrementAndGet();
+			releaseSearch(search);
+		}
+	}
+
+	/**
+	 * Counters and stop flag shared by all the tasks of one enumeration
+	 */
+	private class RunState{
+
+		final long          startNanos  = System.nanoTime();
+		final long          deadline    = limits.timeBudgetMillis > 0 ? startNanos + limits.timeBudgetMillis * 1000000L : 0;
+		final AtomicLong    loopsFound  = new AtomicLong();
+		final AtomicLong    pathsCut    = new AtomicLong();
+		final AtomicInteger startNodesCompleted = new AtomicInteger();
+		volatile EnumerationReport.Outcome stop = null;
+
+		/**
+		 * Claims the right to pass on one more loop
+		 * @return false if the loop limit has been reached
+		 */
+		boolean tryEmit() {
+			if(stop != null) return false;
+			if(limits.maxLoops > 0 && loopsFound.incrementAndGet() > limits.maxLoops) {
+				loopsFound.decrementAndGet();
+				stop = EnumerationReport.Outcome.LOOP_LIMIT;
+				return false;
+			}
+			if(limits.maxLoops <= 0) loopsFound.incrementAndGet();
+			return true;
+		}
+
+		boolean shouldStop() {
+			if(stop != null) return true;
+			if(deadline != 0 && System.nanoTime() - deadline > 0) stop = EnumerationReport.Outcome.TIME_LIMIT;
+			return stop != null;
+		}
+
+		EnumerationReport report() {
+			return new EnumerationReport(stop == null ? EnumerationReport.Outcome.COMPLETE : stop, loopsFound.get(), startNodes.length,
+			                             startNodesCompleted.get(), pathsCut.get(), (System.nanoTime() - startNanos) / 1000000L);
+		}
+	}
+
+	/**
+	 * Finds loops on demand from the start nodes startNodes[next..end-1].
+	 * Splitting hands half of the start nodes that have not yet been
+	 * started to a new spliterator.
+	 */
+	private class LoopSpliterator implements Spliterator<int[]>{
+
+		private int           next;
+		private int           end;
+		private CircuitSearch search    = null;
+		private boolean       searching = false;
+
+		LoopSpliterator(int first, int last) {
+			next = first;
+			end  = last;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super int[]> action) {
+			while(true) {
+				if(searching && search.next()) {
+					action.accept(search.toConceptIds());
+					return true;
+				}
+				if(next >= end) {
+					searching = false;
+					return false;
+				}
+				if(search == null) search = configure(new CircuitSearch(graph), null);
+				searching = search.start(startNodes[next++], components.getLabels(), null);
+			}
+		}
+
+		@Override
+		public Spliterator<int[]> trySplit() {
+			int remaining = end - next;
+			if(remaining < 2) return null;
+			int mid = next + remaining / 2;
+			LoopSpliterator ret = new LoopSpliterator(mid, end);
+			end = mid;
+			return ret;
+		}
+
+		@Override
+		public long estimateSize() {
+			return Long.MAX_VALUE; // Unknown until the search is done
+		}
+
+		@Override
+		public int characteristics() {
+			return NONNULL | IMMUTABLE;
+		}
+	}
+
+}
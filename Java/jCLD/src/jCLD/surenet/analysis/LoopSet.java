@@ -6,19 +6,25 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
-import jCLD.surenet.utils.HalfFloatMatrix;
-import jCLD.surenet.utils.Utilities;
+import jCLD.surenet.utils.CompressedBitmap;
+import jCLD.surenet.utils.ConcurrentHalfFloatMatrix;
+import jCLD.surenet.utils.LevenshteinPattern;
+import jCLD.surenet.utils.RunControl;
 
 /**
  * Maintains a collection of loops, ensuring
@@ -43,16 +49,35 @@ public class LoopSet{
 	}
 	
 	
+	/**
+	 * Calculates the distances left to do in a comparisons file. If
+	 * continueFlagFileName is not null, the run pauses while that file
+	 * is missing (see RunControl.watch)
+	 */
 	public static void moveFromPrecalc(String path, String inputFileName, int startLine, int countLines, String outputFilename, String continueFlagFileName) {
+		moveFromPrecalc(path, inputFileName, startLine, countLines, outputFilename, continueFlagFileName, new RunControl());
+	}
+	
+	/**
+	 * As above, checking the specified control before each line, so
+	 * the run can also be paused or cancelled through it. The control
+	 * is left as it is when the run ends, so the caller can still see
+	 * (and has to clear) a pause or cancellation.
+	 */
+	public static void moveFromPrecalc(String path, String inputFileName, int startLine, int countLines, String outputFilename, String continueFlagFileName, RunControl control) {
+		if(continueFlagFileName != null) control.watch(new File(path + continueFlagFileName), 2);
 		try {
-			File continueFlagFile = new File(path + continueFlagFileName);
 			FileWriter writer = new FileWriter(path + outputFilename);
 	        Scanner reader = new Scanner(new File(path + inputFileName));
 	    	
 	        int lineCount = 0;
 	        int readLines = 0;
 	        while(reader.hasNextLine() && readLines < countLines) {
-	        	Utilities.waitAndSee(continueFlagFile, 2);
+	        	if(!control.checkpoint()) {
+	        		System.out.println();
+	        		System.out.println("Cancelled after " + lineCount + " lines");
+	        		break;
+	        	}
 	        	String line = reader.nextLine();
 	        	lineCount++;
 	        	if(lineCount > startLine) {
@@ -66,7 +91,7 @@ public class LoopSet{
 	        			int[] seq2 = new int[s2.length];
 	        			for(int i = 0; i < s2.length; i++) seq2[i] = Integer.parseInt(s2[i]);
 	        			
-	        			double dist = Utilities.distLevenshteinWithRotation(seq1, seq2);
+	        			double dist = new LevenshteinPattern(seq1).distanceWithRotation(seq2);
 	        			writer.write(elements[0] + "|" + elements[1] + "|[" + dist + "]" + System.lineSeparator());
 	        		}
 	        		readLines++;
@@ -89,6 +114,9 @@ public class LoopSet{
 	        System.out.println("Error: " + E.getMessage());
 	        E.printStackTrace();
 	    }
+		finally {
+			if(continueFlagFileName != null) control.stopWatching();
+		}
 		
 	}
 	
@@ -98,19 +126,59 @@ public class LoopSet{
 	
 	
 
-	private Set<Sequence> loops = new TreeSet<Sequence>();
+	// The loops are stored in the arena; loops holds a view of each, in ID order once finalized
+	private LoopArena        arena = new LoopArena();
+	private Vector<Sequence> loops = new Vector<Sequence>();
+	private Sequence[]       views = new Sequence[64]; // Indexed by arena index
+	
+	// Posting lists of arena indexes: the loops through each concept (by concept ID), and along each link
+	private CompressedBitmap[]              loopsByConcept = new CompressedBitmap[16];
+	private HashMap<Long, CompressedBitmap> loopsByLink    = new HashMap<Long, CompressedBitmap>();
 //	float[][] distances = null;
-	HalfFloatMatrix distances = null;
-	long halfMatrixHits = 0;
+	ConcurrentHalfFloatMatrix distances = null;
+	
+	private EnumerationReport enumerationReport = null;
+	private RunControl        runControl        = new RunControl();
+	
+	/**
+	 * Sets what scoring checks, once per greedy iteration, to see
+	 * whether it should pause or stop; each LoopSet has its own by default
+	 * @param control
+	 */
+	public void setRunControl(RunControl control) {
+		runControl = control;
+	}
+	
+	public RunControl getRunControl() {
+		return runControl;
+	}
+	
+	/**
+	 * Records how the enumeration that filled this set ended
+	 * @param report
+	 */
+	public void setEnumerationReport(EnumerationReport report) {
+		enumerationReport = report;
+	}
+	
+	/**
+	 * Returns how the enumeration that filled this set ended
+	 * (including whether it was cut short by a limit), or null
+	 * if the loops were added some other way
+	 * @return
+	 */
+	public EnumerationReport getEnumerationReport() {
+		return enumerationReport;
+	}
 	
 	/**
 	 * Add a loop to this loopset.
-	 * Compares this loop to all the previously added loops; if
-	 * it is a duplicate, it will not be added.
+	 * Looks the loop up in a hash index of the previously added
+	 * loops; if it is a duplicate, it will not be added.
 	 * If it is a non-loop sequence it will not be added, and the
 	 * return value will be null.
 	 * Note that what is actually added is a COPY of the original loop,
-	 * rotated into standard position (with the concept with the
+	 * stored in this set's LoopArena and rotated into standard position (with the concept with the
 	 * lowest ID value in the first position)
 	 * @param toAdd
 	 * @return null if the sequence to be added is not a loop,
@@ -118,21 +186,101 @@ public class LoopSet{
 	 */
 	public Sequence addLoop(Sequence toAdd) {
 		if(!toAdd.isLoop) return null; // Only add loops
-		Sequence loop = new Sequence(toAdd);
-		loop.rotateToStandard();
-		String rep = loop.toString();
-		for(Sequence l: loops) if(rep.compareTo(l.toString()) == 0) return l;
+		int       length   = toAdd.getSize();
+		Concept[] concepts = new Concept[length];
+		boolean[] negative = new boolean[length];
+		int       i        = 0;
+		for(Link l: toAdd.getLinks()) {
+			concepts[i]   = l.source;
+			negative[i++] = l.influence == Influence.DECREASES;
+		}
+		return addLoop(concepts, negative, length);
+	}
+	
+	/**
+	 * Add a loop to this loopset, given as its concepts and the
+	 * polarity of the link from each concept to the next (the
+	 * last links back to the first). The loop is stored in the
+	 * arena, rotated into standard position, unless it is a duplicate.
+	 * @param concepts
+	 * @param negative
+	 * @param length
+	 * @return the view of the stored loop (new or existing)
+	 */
+	public Sequence addLoop(Concept[] concepts, boolean[] negative, int length) {
+		int index = arena.add(concepts, negative, length);
+		if(!arena.getLastAddedWasNew()) return views[index];
+		if(index == views.length) views = Arrays.copyOf(views, views.length * 2);
+		Sequence loop = new Sequence(arena, index);
+		views[index] = loop;
 		loops.add(loop);
+		index(index);
 		return loop;
 	}
 	
+	/**
+	 * Adds a newly stored loop to the posting lists. Loops are added
+	 * in arena order, so each list is appended to in increasing order.
+	 * @param index
+	 */
+	private void index(int index) {
+		int length = arena.length(index);
+		for(int k = 0; k < length; k++) {
+			int source = arena.conceptId(index, k);
+			int target = arena.conceptId(index, k + 1 == length ? 0 : k + 1);
+			if(source >= loopsByConcept.length) loopsByConcept = Arrays.copyOf(loopsByConcept, Math.max(source + 1, loopsByConcept.length * 2));
+			if(loopsByConcept[source] == null) loopsByConcept[source] = new CompressedBitmap();
+			loopsByConcept[source].add(index);
+			loopsByLink.computeIfAbsent(linkKey(source, target), key -> new CompressedBitmap()).add(index);
+		}
+	}
+	
+	private static long linkKey(int source, int target) {
+		return ((long)source << 32) | (target & 0xFFFFFFFFL);
+	}
+	
+	/**
+	 * Returns the arena indexes of the loops that contain the concept,
+	 * or null if there are none. The bitmap belongs to the set and
+	 * must not be modified.
+	 * @param concept
+	 * @return
+	 */
+	public CompressedBitmap getLoopsWithConcept(Concept concept) {
+		return concept.getId() < loopsByConcept.length ? loopsByConcept[concept.getId()] : null;
+	}
+	
+	/**
+	 * Returns the arena indexes of the loops that contain a link from
+	 * source to target (influence is not considered), or null if there
+	 * are none. The bitmap belongs to the set and must not be modified.
+	 * @param source
+	 * @param target
+	 * @return
+	 */
+	public CompressedBitmap getLoopsWithLink(Concept source, Concept target) {
+		return loopsByLink.get(linkKey(source.getId(), target.getId()));
+	}
+	
+	/**
+	 * Returns the arena that holds the loops
+	 * @return
+	 */
+	public LoopArena getArena() {
+		return arena;
+	}
+	
 	public void finalize() {
+		// IDs follow the order of the loops' string representations
+		String[] reps = new String[arena.size()];
+		for(Sequence l: loops) reps[l.arenaIndex] = l.toString();
+		loops.sort((a, b) -> reps[a.arenaIndex].compareTo(reps[b.arenaIndex]));
 		int id = 0;
 		for(Sequence l: loops) l.id = id++;
 		for(Sequence l: loops) {
-			System.out.println(l.id + ": " + l.shortRep);
+			System.out.println(l.id + ": " + reps[l.arenaIndex]);
 		}
-		distances = new HalfFloatMatrix(id, -1f);
+		distances = new ConcurrentHalfFloatMatrix(id);
 	}
 	
 	public void report() {
@@ -165,15 +313,13 @@ public class LoopSet{
 	}
 	
 	public long loopsContainingLink(Concept source, Concept target) {
-		int count = 0;
-		for(Sequence s: loops) if(s.containsLink(source, target)) count++;
-		return count;
+		CompressedBitmap b = getLoopsWithLink(source, target);
+		return b == null ? 0 : b.cardinality();
 	}
 	
 	public long loopsContainingConcept(Concept concept) {
-		int count = 0;
-		for(Sequence s: loops) if(s.hasSource(concept)) count++;
-		return count;
+		CompressedBitmap b = getLoopsWithConcept(concept);
+		return b == null ? 0 : b.cardinality();
 	}
 	
 	public int getSize() {
@@ -188,91 +334,505 @@ public class LoopSet{
 	private static int LOOP_REPORT_PERIOD = 100;
 	private static int TIME_LIMIT         = 200;
 	
+	/**
+	 * The ways getDistance can find (or rule out) a distance:
+	 * 
+	 *  - Length          = The difference in sizes alone reached the threshold
+	 *  - SharedConcepts  = The lower bound from the concepts the loops share reached the threshold
+	 *  - BoundsMet       = The upper and lower bounds were equal, so no kernel was needed
+	 *  - Banded          = The banded kernel stopped once the distance reached the threshold
+	 *  - Exact           = The distance kernel ran to the end
+	 */
+	public static enum DistanceFilter {
+		LENGTH,
+		SHARED_CONCEPTS,
+		BOUNDS_MET,
+		BANDED,
+		EXACT
+	}
+	
+	private LongAdder[] filterCounts = new LongAdder[DistanceFilter.values().length];
+	{
+		for(int i = 0; i < filterCounts.length; i++) filterCounts[i] = new LongAdder();
+	}
+	private LongAdder distanceHits   = new LongAdder(); // getDistance calls that found the distance stored
+	private LongAdder distanceMisses = new LongAdder(); // getDistance calls that did not
+	
 	public double getDistance(Sequence a, Sequence b) {
-		float d = distances.get(a.id,b.id);
-		if(d == -1f) {
-			d = a.distance(b, false);
-			distances.set(a.id,b.id, d);
+		return getDistance(a, b, Double.POSITIVE_INFINITY);
+	}
+	
+	/**
+	 * Returns the distance between two loops, unless it is at least
+	 * threshold, in which case the value returned may only be a lower
+	 * bound on the distance (but is still at least threshold).
+	 * 
+	 * Stored distances are used first. Otherwise cheap bounds are tried
+	 * before the distance kernel: the difference in sizes, then the
+	 * concepts the loops share (Sequence.distanceLowerBound), then the
+	 * values they share at the start and end (Sequence.distanceUpperBound).
+	 * The kernel itself is told the threshold (Sequence.distanceAtMost),
+	 * and gives up once the distance reaches it.
+	 * Only exact distances are stored.
+	 * 
+	 * Can be called from several threads at once: a thread claims a
+	 * pair's slot in the matrix before running the kernel, and a thread
+	 * that finds the slot claimed waits for its value rather than
+	 * computing it too.
+	 * @param a
+	 * @param b
+	 * @param threshold
+	 * @return
+	 */
+	public double getDistance(Sequence a, Sequence b, double threshold) {
+		float d = distances.getAcquire(a.id,b.id);
+		if(d >= 0) {
+			distanceHits.increment();
+			return d;
+		}
+		distanceMisses.increment();
+		
+		float denominator = a.getSize() + b.getSize();
+		float bound       = Math.abs(a.getSize() - b.getSize()) / denominator;
+		if(bound >= threshold) {
+			filterCounts[DistanceFilter.LENGTH.ordinal()].increment();
+			return bound;
+		}
+		int lower = a.distanceLowerBound(b);
+		bound = lower / denominator;
+		if(bound >= threshold) {
+			filterCounts[DistanceFilter.SHARED_CONCEPTS.ordinal()].increment();
+			return bound;
+		}
+		
+		while(!distances.claim(a.id, b.id)) {
+			d = distances.await(a.id, b.id);
+			if(d >= 0) return d; // Computed by the thread that held the claim
+		}
+		boolean stored = false;
+		try {
+			if(a.distanceUpperBound(b) == lower) {
+				filterCounts[DistanceFilter.BOUNDS_MET.ordinal()].increment();
+				d = bound;
+			}
+			else if(threshold < 1) {
+				// Distances are below 1, so a threshold of 1 or more cuts nothing off
+				int k    = distanceCap(threshold, denominator);
+				int dist = a.distanceAtMost(b, k);
+				if(dist >= k) {
+					filterCounts[DistanceFilter.BANDED.ordinal()].increment();
+					return dist / denominator;
+				}
+				filterCounts[DistanceFilter.EXACT.ordinal()].increment();
+				d = dist / denominator;
+			}
+			else {
+				filterCounts[DistanceFilter.EXACT.ordinal()].increment();
+				d = a.distance(b, false);
+			}
+			distances.publish(a.id,b.id, d);
+			stored = true;
+			return d;
+		}
+		finally {
+			if(!stored) distances.release(a.id, b.id);
+		}
+	}
+	
+	/**
+	 * Calculates the exact distance between two loops, skipping the
+	 * kernel if the upper and lower bounds meet
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	private float exactDistance(Sequence a, Sequence b) {
+		int lower = a.distanceLowerBound(b);
+		if(a.distanceUpperBound(b) == lower) {
+			filterCounts[DistanceFilter.BOUNDS_MET.ordinal()].increment();
+			return lower / (float)(a.getSize() + b.getSize());
+		}
+		filterCounts[DistanceFilter.EXACT.ordinal()].increment();
+		return a.distance(b, false);
+	}
+	
+	private static final int TILE_SIZE = 64; // Loops per side of a tile in computeAllDistances
+	
+	/**
+	 * Calculates the distance between every pair of loops that does not
+	 * have one stored yet, and stores it, using a fork-join pool of the
+	 * specified number of threads; this does in one process what writing
+	 * a comparisons file, running moveFromPrecalc over slices of it and
+	 * reading the results back with readPrescores does across several.
+	 * 
+	 * The triangle of pairs is cut into square tiles of TILE_SIZE loops
+	 * by TILE_SIZE loops, small enough that a tile's loops and its part
+	 * of the matrix stay in cache. The pool splits the list of tiles
+	 * between its threads, each of which uses its own DistanceKernel.
+	 * Slots are claimed as in getDistance, so this can run while other
+	 * threads are calling it; a slot another thread has claimed is
+	 * waited for, and computed here if that thread releases it empty.
+	 * Must be called after finalize().
+	 * @param threads
+	 */
+	public void computeAllDistances(int threads) {
+		int  size  = loops.size();
+		long start = System.currentTimeMillis();
+		for(Sequence l: loops) l.getPattern(); // Built here rather than raced for by the threads
+		Sequence[] byId = new Sequence[size];
+		for(Sequence l: loops) byId[l.id] = l;
+		
+		int           blocks = (size + TILE_SIZE - 1) / TILE_SIZE;
+		long          tiles  = (long)blocks * (blocks + 1) / 2;
+		AtomicLong    pairs  = new AtomicLong();
+		ForkJoinPool  pool   = new ForkJoinPool(threads);
+		System.out.println(size + " loops; " + ((long)size * (size - 1) / 2) + " pairs in " + tiles + " tiles on " + threads + " threads");
+		try {
+			pool.invoke(new DistanceTiles(byId, 0, tiles, pairs));
+		}
+		finally {
+			pool.shutdown();
+		}
+		System.out.println("Computed " + pairs.get() + " distances in " + (System.currentTimeMillis() - start) + " ms");
+	}
+	
+	/**
+	 * Claims the slot for loops i and j, waiting while another thread
+	 * holds it; returns false once the slot has a value. A thread in
+	 * getDistance can give up its claim without storing a value, when
+	 * the distance is over its threshold, so a claimed slot may yet
+	 * come back empty.
+	 * @param i
+	 * @param j
+	 * @return
+	 */
+	private boolean claimUnstored(int i, int j) {
+		while(!distances.claim(i, j)) {
+			if(distances.await(i, j) >= 0) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Fills the tiles with indexes from .. to - 1, numbering the tiles
+	 * of the lower triangle row by row: tile (I, J), J <= I, is number
+	 * I * (I + 1) / 2 + J
+	 */
+	private class DistanceTiles extends RecursiveAction{
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final Sequence[] byId;
+		private final long       from;
+		private final long       to;
+		private final AtomicLong pairs;
+		
+		DistanceTiles(Sequence[] loopsById, long first, long end, AtomicLong pairCount) {
+			byId  = loopsById;
+			from  = first;
+			to    = end;
+			pairs = pairCount;
 		}
-		else halfMatrixHits++;
-		return d;
+		
+		@Override
+		protected void compute() {
+			if(to - from > 1) {
+				long middle = (from + to) >>> 1;
+				invokeAll(new DistanceTiles(byId, from, middle, pairs), new DistanceTiles(byId, middle, to, pairs));
+				return;
+			}
+			int row    = (int)((Math.sqrt(8.0 * from + 1) - 1) / 2);
+			while((long)row * (row + 1) / 2 > from) row--;
+			while((long)(row + 1) * (row + 2) / 2 <= from) row++;
+			int column = (int)(from - (long)row * (row + 1) / 2);
+			
+			int count = 0;
+			int iEnd  = Math.min(byId.length, (row + 1) * TILE_SIZE);
+			for(int i = row * TILE_SIZE; i < iEnd; i++) {
+				Sequence a    = byId[i];
+				int      jEnd = Math.min(i, (column + 1) * TILE_SIZE);
+				for(int j = column * TILE_SIZE; j < jEnd; j++) {
+					if(!claimUnstored(i, j)) continue; // Stored already, possibly by another thread
+					boolean stored = false;
+					try {
+						distances.publish(i, j, exactDistance(a, byId[j]));
+						stored = true;
+					}
+					finally {
+						if(!stored) distances.release(i, j);
+					}
+					count++;
+				}
+			}
+			pairs.addAndGet(count);
+		}
+	}
+	
+	/**
+	 * Returns the smallest edit distance k for which k / denominator
+	 * (in float arithmetic, as distances are stored) is at least threshold
+	 * @param threshold
+	 * @param denominator
+	 * @return
+	 */
+	private static int distanceCap(double threshold, float denominator) {
+		int k = Math.max(0, (int)Math.ceil(threshold * denominator));
+		while(k > 0 && (k - 1) / denominator >= threshold) k--;
+		while(k / denominator < threshold) k++;
+		return k;
+	}
+	
+	/**
+	 * Returns how many times getDistance has used each filter
+	 * @param filter
+	 * @return
+	 */
+	public long getFilterCount(DistanceFilter filter) {
+		return filterCounts[filter.ordinal()].sum();
+	}
+	
+	/**
+	 * Returns how many getDistance calls found the distance stored
+	 * @return
+	 */
+	public long getDistanceHits() {
+		return distanceHits.sum();
+	}
+	
+	/**
+	 * Returns how many getDistance calls did not find the distance
+	 * stored (though some of them then waited for another thread to store it)
+	 * @return
+	 */
+	public long getDistanceMisses() {
+		return distanceMisses.sum();
+	}
+	
+	public void reportDistanceFilters() {
+		System.out.println("DISTANCE LOOKUPS: hits = " + getDistanceHits() + " misses = " + getDistanceMisses());
+		for(DistanceFilter f: DistanceFilter.values()) System.out.println("DISTANCE FILTER: " + f.name() + " = " + getFilterCount(f));
 	}
 	
 	public float getStoredDistance(Sequence a, Sequence b) {
-		float d = distances.get(a.id,b.id);
-		return (d == -1)  ? Float.POSITIVE_INFINITY : d;
+		float d = distances.getAcquire(a.id,b.id);
+		return (d < 0)  ? Float.POSITIVE_INFINITY : d;
 	}
 	
 
 	
 	private Set<Concept> getAllConcepts(){
 		Set<Concept> concepts = new HashSet<Concept>();
-	    for(Sequence s: loops) {
-	    	for(Concept c: s.getAllConcepts()) {
-	    		if(!concepts.contains(c)) concepts.add(c); // Isn't this automatic- it's a set?
-	    	}
-	    }
+		for(int id = 0; id < loopsByConcept.length; id++) {
+			if(loopsByConcept[id] != null) concepts.add(arena.getConceptById(id));
+		}
 	    return concepts;
 	}
 	
+	private static final int SPLIT_SIZE = 2048; // A concept with at least this many loops left splits each scan between threads
+	private static final int SCAN_CHUNK = 512;  // Loops per task in a split scan
+	private static final int PROGRESS_PERIOD = 10000; // Milliseconds between progress lines for a concept
+	
+	/**
+	 * Scores every concept on one thread; see the threads version
+	 * to use more
+	 * @param verbose
+	 * @return
+	 */
 	public Map<Concept, Double> getConceptsAndScores(boolean verbose){
+		return getConceptsAndScores(verbose, 1);
+	}
+	
+	/**
+	 * Scores every concept on a fork-join pool of the specified number
+	 * of threads. Each concept's scoring only reads the loops and the
+	 * shared distance matrix, so concepts are scored as separate tasks,
+	 * submitted largest first so the longest ones start earliest. A
+	 * concept with more than SPLIT_SIZE loops left also splits its scan
+	 * of them between threads, which threads that have run out of
+	 * concepts steal. Scores are the same whatever the number of threads.
+	 * Scoring can be paused or cancelled through its RunControl; a
+	 * cancelled run returns the concepts scored so far. A cancellation
+	 * left over from an earlier run is cleared when scoring starts.
+	 * @param verbose
+	 * @param threads
+	 * @return
+	 */
+	public Map<Concept, Double> getConceptsAndScores(boolean verbose, int threads){
 		Map<Concept, Double> ret = new HashMap<Concept, Double>();
+		if(runControl.isCancelled()) runControl.reset(); // From an earlier run
 		
-		Vector<Sequence> ls       = loopsSortedBySize();	        
-		Set<Concept>     concepts = getAllConcepts();
+		Sequence[]       bySize   = loopsSortedBySize().toArray(new Sequence[0]);
+		Vector<Concept>  concepts = new Vector<Concept>(getAllConcepts());
+		int[]            sizeRank = new int[arena.size()]; // Position of each loop in bySize, by arena index
+		for(int i = 0; i < bySize.length; i++) sizeRank[bySize[i].arenaIndex] = i;
+		concepts.sort((a, b) -> getLoopsWithConcept(b).cardinality() - getLoopsWithConcept(a).cardinality());
 		    
-	    if(verbose) System.out.println("Entering scoring...");    
+	    if(verbose) System.out.println("Entering scoring on " + threads + " threads...");    
 		    
 	    // Loop through all the concepts and get relevance scores
-	    int conceptCount = 0;
-	    for(Concept c: concepts) {
-	    	conceptCount++;
-	    	if(verbose) System.out.println("Scoring concept: " + c.getName() + " (" + conceptCount + "/" + concepts.size() + ")");
-	    	LinkedList<SeqScorePair> sourceLoops = new LinkedList<SeqScorePair>(); // Score is lowest distance to all current Scored Loops
-	    	Vector<SeqScorePair>     scoredLoops = new Vector<SeqScorePair>(); // Score is lowest distance to all previously entered Source Loops
+	    Vector<ConceptScore> tasks = new Vector<ConceptScore>();
+	    ForkJoinPool         pool  = new ForkJoinPool(threads);
+	    try {
+	    	for(Concept c: concepts) {
+	    		ConceptScore task = new ConceptScore(c, tasks.size() + 1, concepts.size(), bySize, sizeRank, verbose);
+	    		pool.submit(task);
+	    		tasks.add(task);
+	    	}
+	    	for(ConceptScore task: tasks) {
+	    		Double score = task.join();
+	    		if(score != null) ret.put(task.concept, score);
+	    	}
+	    }
+	    finally {
+	    	pool.shutdown();
+	    }
+	    if(runControl.isCancelled()) System.out.println("Scoring cancelled; " + ret.size() + " concepts scored");
+	    if(verbose) reportDistanceFilters();
+		return ret;
+	}
+	
+	/**
+	 * Scores one concept; returns null if it is in less than two loops.
+	 * 
+	 * Starting from the concept's largest loop, it repeatedly adds the
+	 * loop closest to any loop added so far, adding its size times that
+	 * distance to the score. The loops not yet added are kept as their
+	 * positions in bySize in an int array, with their distances to the
+	 * nearest added loop in a float array; a loop is removed by moving
+	 * the last one into its place. Ties go to the loop that comes first
+	 * in bySize, which is the one the original list-based scan chose.
+	 */
+	private class ConceptScore extends RecursiveTask<Double>{
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final Concept    concept;
+		private final int        position;
+		private final int        total;
+		private final Sequence[] bySize;
+		private final int[]      sizeRank;
+		private final boolean    verbose;
+		
+		ConceptScore(Concept c, int conceptCount, int conceptTotal, Sequence[] sorted, int[] ranks, boolean isVerbose) {
+			concept  = c;
+			position = conceptCount;
+			total    = conceptTotal;
+			bySize   = sorted;
+			sizeRank = ranks;
+			verbose  = isVerbose;
+		}
+		
+		@Override
+		protected Double compute() {
+			Concept c = concept;
+	    	if(verbose) System.out.println("Scoring concept: " + c.getName() + " (" + position + "/" + total + ")");
 		    	
-	    	for(Sequence s: ls) if(s.hasSource(c)) sourceLoops.add(new SeqScorePair(s, 1.0)); // Preserves order
-	    	int numberOfLoops = sourceLoops.size();
+	    	int[] candidates = getLoopsWithConcept(c).toArray();
+	    	for(int i = 0; i < candidates.length; i++) candidates[i] = sizeRank[candidates[i]];
+	    	Arrays.sort(candidates);
+	    	int numberOfLoops = candidates.length;
 	    	if(numberOfLoops <= 1) {
 	    		if(verbose) System.out.println(c.getName() + " is in less than two loops- skipping.");
-	    		continue; // Just move along...
+	    		return null; // Just move along...
 	    	}
 
-	    	SeqScorePair lastAdded = sourceLoops.remove();
-	    	scoredLoops.add(lastAdded);
-	    	double finalScore = lastAdded.seq.getSize();
-	    	File continueFlagFile = new File("/Users/murphy/work/SUReNet/continue.txt");
-	    	Date dt = new Date();
-	    	while(sourceLoops.size() > 0) {	    	    		
-	    		System.out.print(dt + " Looping through sourceloops, size = " + sourceLoops.size());	    		
-	    		Utilities.waitAndSee(continueFlagFile, 120);
-	    		halfMatrixHits = 0;
-	    		for(SeqScorePair source: sourceLoops) {
-	    			double d = getDistance(source.seq, lastAdded.seq);
-	    			if(d < source.score) source.score = d;
+	    	Sequence lastAdded  = bySize[candidates[0]];
+	    	double   finalScore = lastAdded.getSize();
+	    	int      left       = numberOfLoops - 1;
+	    	float[]  scores     = new float[left]; // Lowest distance to the loops added so far
+	    	Arrays.fill(scores, 1f);
+	    	candidates[0] = candidates[left];
+	    	
+	    	long start      = System.currentTimeMillis();
+	    	long lastReport = start;
+	    	while(left > 0) {
+	    		if(!runControl.checkpoint()) return null; // Cancelled
+	    		int best;
+	    		if(left >= SPLIT_SIZE) {
+	    			ScoreUpdate update = new ScoreUpdate(bySize, candidates, scores, lastAdded, 0, left);
+	    			update.invoke();
+	    			best = update.best;
 	    		}
-	    		System.out.print(" hits = " + halfMatrixHits + "(" + (int)((((double)halfMatrixHits)/sourceLoops.size() * 100d)) + "%)");
-	    			    		
-	    		int indexOfMin = 0;
-	    		double min = Float.POSITIVE_INFINITY;
-	    		int indx = 0;
-	    		for(SeqScorePair source: sourceLoops) {
-	    			if(source.score < min) {
-	    				min = source.score;
-	    				indexOfMin = indx; 
-	    			}
-	    			indx++;
+	    		else best = updateScores(bySize, candidates, scores, lastAdded, 0, left);
+	    		
+	    		lastAdded   = bySize[candidates[best]];
+	    		finalScore += lastAdded.getSize() * (double)scores[best];
+	    		left--;
+	    		candidates[best] = candidates[left];
+	    		scores[best]     = scores[left];
+	    		
+	    		long now = System.currentTimeMillis();
+	    		if(now - lastReport >= PROGRESS_PERIOD) {
+	    			lastReport = now;
+	    			System.out.println(new Date() + " " + c.getName() + ": " + (numberOfLoops - left) + " of " + numberOfLoops + " loops scored in " + ((now - start) / 1000d) + " s");
 	    		}
-	    		lastAdded = sourceLoops.remove(indexOfMin);
-	    		finalScore += lastAdded.seq.getSize() * lastAdded.score;
-    			scoredLoops.add(lastAdded);
-    			System.out.println(" time = " + ((double)((dt.getTime() - ((dt = (new Date())).getTime()))/(-1000d))));
-
 	    	}
 	    	if(verbose) System.out.println("FINALSCORE," + c.getName().replaceAll(" ", "_") + "," + numberOfLoops + "," + finalScore);
-	    	ret.put(c, finalScore);
-	    }
-		return ret;
+	    	return finalScore;
+		}
+	}
+	
+	/**
+	 * Lowers the score of each candidate from .. to - 1 to its distance
+	 * from the loop just added, if that is less, and returns the index
+	 * of the candidate with the lowest score after that
+	 */
+	private int updateScores(Sequence[] bySize, int[] candidates, float[] scores, Sequence added, int from, int to) {
+		int best = from;
+		for(int i = from; i < to; i++) {
+			float  score = scores[i];
+			double d     = getDistance(bySize[candidates[i]], added, score);
+			if(d < score) scores[i] = score = (float)d;
+			best = closer(candidates, scores, best, i);
+		}
+		return best;
+	}
+	
+	/**
+	 * Returns whichever of candidates i and j has the lower score,
+	 * or the earlier position in bySize if the scores are equal
+	 */
+	private static int closer(int[] candidates, float[] scores, int i, int j) {
+		if(scores[j] < scores[i] || (scores[j] == scores[i] && candidates[j] < candidates[i])) return j;
+		return i;
+	}
+	
+	/**
+	 * Runs updateScores over a range of candidates, split into
+	 * SCAN_CHUNK sized tasks, leaving the index of the closest in best
+	 */
+	private class ScoreUpdate extends RecursiveAction{
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final Sequence[] bySize;
+		private final int[]      candidates;
+		private final float[]    scores;
+		private final Sequence   added;
+		private final int        from;
+		private final int        to;
+		private int              best;
+		
+		ScoreUpdate(Sequence[] sorted, int[] candidateRanks, float[] candidateScores, Sequence addedLoop, int first, int end) {
+			bySize     = sorted;
+			candidates = candidateRanks;
+			scores     = candidateScores;
+			added      = addedLoop;
+			from       = first;
+			to         = end;
+		}
+		
+		@Override
+		protected void compute() {
+			if(to - from > SCAN_CHUNK) {
+				int         middle = (from + to) >>> 1;
+				ScoreUpdate low    = new ScoreUpdate(bySize, candidates, scores, added, from, middle);
+				ScoreUpdate high   = new ScoreUpdate(bySize, candidates, scores, added, middle, to);
+				invokeAll(low, high);
+				best = closer(candidates, scores, low.best, high.best);
+			}
+			else best = updateScores(bySize, candidates, scores, added, from, to);
+		}
 	}
 	
 	private static String addSuffixAndLCFExtension(String filename, int index) {
@@ -284,8 +844,9 @@ public class LoopSet{
 	// Omits initial elements if they are identical
 	public void writeOnlyComparisonsToFile(String filename, long maxLinesPerFile, boolean pauseBetweenFiles) {
 		Vector<Sequence> sequencesInOrder = new Vector<Sequence>();
+		int[][]          asInts           = new int[loops.size()][];
 		for(Sequence loop: loops) {
-			loop.getSequenceAsInts(); // This will initialize all of these
+			asInts[sequencesInOrder.size()] = loop.getSequenceAsInts();
 			sequencesInOrder.add(loop);
 		}
 		int size = sequencesInOrder.size();
@@ -301,9 +862,11 @@ public class LoopSet{
 			String currentFilename = addSuffixAndLCFExtension(filename, currentFile);
 			FileWriter writer = new FileWriter(currentFilename);
 			for(int i = 0; i < sequencesInOrder.size() - 1; i++) {
-				Sequence seq1 = sequencesInOrder.get(i);
+				Sequence seq1  = sequencesInOrder.get(i);
+				int[]    ints1 = asInts[i];
 				for(int j = i + 1; j < sequencesInOrder.size(); j++) {
-					Sequence seq2 = sequencesInOrder.get(j);
+					Sequence seq2  = sequencesInOrder.get(j);
+					int[]    ints2 = asInts[j];
 					
 					StringBuilder s = new StringBuilder();
 					s.append(seq1.id + "," + seq1.getSize());
@@ -312,8 +875,8 @@ public class LoopSet{
 					s.append("|");
 	
 					int start = 0;
-					int minLength = Math.min(seq1.sequenceAsInts.length, seq2.sequenceAsInts.length);
-					while((start < minLength) && (seq1.sequenceAsInts[start] == seq2.sequenceAsInts[start])) start++;
+					int minLength = Math.min(ints1.length, ints2.length);
+					while((start < minLength) && (ints1[start] == ints2[start])) start++;
 					
 					// In this case, the beginning of one of the sequences is the entirety of another,
 					// e.g.:
@@ -321,10 +884,10 @@ public class LoopSet{
 					//     A  B  C
 					// The Levenshtein distance will be the difference in their lengths
 					if(start == minLength) {
-						s.append("[" + Math.abs(seq1.sequenceAsInts.length - seq2.sequenceAsInts.length) + "]");
+						s.append("[" + Math.abs(ints1.length - ints2.length) + "]");
 						precalc++;
 					}
-					else if(seq1.sequenceAsInts.length == start + 1 && seq2.sequenceAsInts.length == start +1) {
+					else if(ints1.length == start + 1 && ints2.length == start +1) {
 						// This is the case where both sequences start the same but have one ending element different
 						s.append("[1]");
 						precalc++;
@@ -332,16 +895,16 @@ public class LoopSet{
 					else {
 						
 						sep = "";
-						for(int x = start; x < seq1.sequenceAsInts.length; x++) {
+						for(int x = start; x < ints1.length; x++) {
 							s.append(sep);
-							s.append(seq1.sequenceAsInts[x]);
+							s.append(ints1[x]);
 							sep = ",";
 						}
 						s.append("|");
 						sep = "";
-						for(int x = start; x < seq2.sequenceAsInts.length; x++) {
+						for(int x = start; x < ints2.length; x++) {
 							s.append(sep);
-							s.append(seq2.sequenceAsInts[x]);
+							s.append(ints2[x]);
 							sep = ",";
 						}
 					}
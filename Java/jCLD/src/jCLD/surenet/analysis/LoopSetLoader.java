@@ -1,17 +1,16 @@
 package jCLD.surenet.analysis;
 
-import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.util.HashSet;
 import java.util.Map;
-import java.util.Scanner;
 import java.util.Set;
 import java.util.Vector;
 
 
 public class LoopSetLoader{
 	
+	private ConceptRegistry      concepts;
 	private DiagramNetwork       network;
 	private Set<Link>            allLinks;
 	private LoopSet              loopSet;
@@ -19,32 +18,19 @@ public class LoopSetLoader{
 	
 	public void loadLoopSet(String path, String filename) {
 		System.out.println("Starting load network and load allLinks");
+		concepts = new ConceptRegistry();
 		network  = new DiagramNetwork();	
 		allLinks = new HashSet<Link>();
 	    try {	        
-	    	// This ensures that the same network file will return the same concepts and be assigned the same IDs
-	    	System.out.println("Loading concepts via concept factory");
-	        ConceptFactory.loadConceptSetFromNetworkFile(path + filename);
-	        System.out.println("Done with concept load.");
-	        
-	        Scanner myReader = new Scanner(new File(path + filename));
-	    	
-	        System.out.println("Beginning read of links...");
-	        String data = myReader.nextLine(); // Skip the first line
-	        while (myReader.hasNextLine()) {
-	          data = myReader.nextLine();  
-	          
-	          String[]  info      = data.split(",");
-	          Concept   concept1  = ConceptFactory.getConcept(info[0]);
-	          Concept   concept2  = ConceptFactory.getConcept(info[1]);
-	          Influence influence = info[2].compareTo("Positive") == 0 ? Influence.INCREASES : Influence.DECREASES;
-	          Link      toAdd     = new Link(concept1, influence, concept2);
+	    	// A single pass creates the concepts (in name order, so that the same network
+	    	// file will return the same concepts and be assigned the same IDs) and the links
+	        System.out.println("Beginning read of concepts and links...");
+	        for(Link toAdd: new NetworkFileReader(concepts).read(path + filename)) {
 	          network.addLink(toAdd);
 	          allLinks.add(toAdd);
 	        }
 	        System.out.println("Done with link read.");
-	        myReader.close();
-	      } catch (FileNotFoundException e) {
+	      } catch (IOException e) {
 	        System.out.println("An error occurred.");
 	        e.printStackTrace();
 	      }
@@ -67,15 +53,42 @@ public class LoopSetLoader{
 		loopSet.readPrescores(path, filenames);
 	}
 	
+	/**
+	 * Calculates every pairwise loop distance in this process, on the
+	 * specified number of threads, instead of going through comparison files
+	 * @param threads
+	 */
+	public void computeAllDistances(int threads) {
+		loopSet.computeAllDistances(threads);
+	}
+	
 	public void getScores() {
-		if(scores == null) scores = loopSet.getConceptsAndScores(true);
+		if(scores == null) keepScores(loopSet.getConceptsAndScores(true));
+	}
+	
+	/**
+	 * Scores the concepts on the specified number of threads
+	 * @param threads
+	 */
+	public void getScores(int threads) {
+		if(scores == null) keepScores(loopSet.getConceptsAndScores(true, threads));
+	}
+	
+	/**
+	 * Keeps the scores unless the run was cancelled, in which case
+	 * they are only partial and the next getScores call starts again
+	 * @param result
+	 */
+	private void keepScores(Map<Concept, Double> result) {
+		if(loopSet.getRunControl().isCancelled()) System.out.println("Scoring was cancelled; scores not kept (" + result.size() + " concepts scored)");
+		else scores = result;
 	}
 	
 	public void writeConceptNodeFile(String path, String outputFilename) {
 		try {
 			FileWriter writer = new FileWriter(path + outputFilename);
 			writer.write("id,numberOfLoops,relevanceScore" + System.lineSeparator());
-			for(Concept c: ConceptFactory.getAll()) {
+			for(Concept c: concepts.getAll()) {
 				double score = scores.containsKey(c) ? scores.get(c) : 0.0;
 				long loopsTraversing = loopSet.loopsContainingConcept(c);
 				writer.write(c.getRepresentation() + "," + loopsTraversing + "," + score + System.lineSeparator());
@@ -0,0 +1,23 @@
+package jCLD.surenet.analysis;
+
+/**
+ * Receives loops one at a time as they are found, so that
+ * loops can be counted, filtered, indexed or written out
+ * without keeping them all in memory.
+ *
+ * The arrays passed are buffers that are re-used for the next
+ * loop; copy anything that needs to be kept. When loops are
+ * found in parallel the visitor is called from several threads
+ * at once (each with its own buffers), so it must be thread-safe.
+ */
+public interface LoopVisitor{
+
+	/**
+	 * Called once for each loop.
+	 * @param concepts   - concepts[0..length-1] are the concept IDs around the loop, starting with the standard first concept
+	 * @param negative   - negative[i] is true if the link from concepts[i] to the next concept (or back to the first) decreases it
+	 * @param length     - the number of concepts (and links) in the loop
+	 */
+	public void visitLoop(int[] concepts, boolean[] negative, int length);
+
+}
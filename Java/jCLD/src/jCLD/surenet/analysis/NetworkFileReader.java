@@ -0,0 +1,237 @@
+package jCLD.surenet.analysis;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * Reads a network file in a single pass.
+ *
+ * The file is expected to be a csv in the format:
+ *
+ *   Source,Target,Polarity
+ *   Entity1,Entity2,Positive
+ *   Entity2,Entity1,Negative
+ *
+ * The first line is a header and is skipped. The file is
+ * memory-mapped and tokenized directly from its bytes; a String
+ * is only created the first time a concept name is seen, and
+ * no per-line Strings or regular expressions are used.
+ *
+ * Once the whole file has been read, the concepts are created
+ * in the registry in alphabetical order of their names (so the
+ * same network file always produces the same IDs) and the links
+ * are created in the order in which they appear in the file.
+ */
+public class NetworkFileReader{
+
+	private static final byte[] POSITIVE = "Positive".getBytes(Charset.forName("US-ASCII"));
+
+	private ConceptRegistry  registry;
+	private MappedByteBuffer buffer;
+
+	// Symbol table of distinct names, keyed on byte ranges of the mapped file
+	private int[]    table        = new int[64];   // Open addressing; holds symbol index + 1, zero is empty
+	private int[]    symbolHash   = new int[16];
+	private int[]    symbolStart  = new int[16];
+	private int[]    symbolLength = new int[16];
+	private int      symbolCount  = 0;
+
+	// Links, as symbol indices in file order
+	private int[]     linkSource   = new int[16];
+	private int[]     linkTarget   = new int[16];
+	private boolean[] linkPositive = new boolean[16];
+	private int       linkCount    = 0;
+
+	private int       malformedLines = 0;
+
+	/**
+	 * Creates a reader that adds concepts to the specified registry
+	 * @param r
+	 */
+	public NetworkFileReader(ConceptRegistry r) {
+		registry = r;
+	}
+
+	/**
+	 * Reads the network file, creating concepts in the registry
+	 * and returning the links in the order they appear in the file.
+	 * @param filename
+	 * @return
+	 * @throws IOException
+	 */
+	public List<Link> read(String filename) throws IOException {
+		scan(filename);
+
+		// Names are decoded once each, then concepts are created in name order
+		String[] names = new String[symbolCount];
+		Charset charset = Charset.defaultCharset();
+		for(int i = 0; i < symbolCount; i++) {
+			byte[] bytes = new byte[symbolLength[i]];
+			buffer.position(symbolStart[i]);
+			buffer.get(bytes);
+			names[i] = new String(bytes, charset);
+		}
+		buffer = null;
+
+		Integer[] order = new Integer[symbolCount];
+		for(int i = 0; i < symbolCount; i++) order[i] = i;
+		Arrays.sort(order, Comparator.comparing(i -> names[i]));
+
+		Concept[] concepts = new Concept[symbolCount];
+		for(int i: order) concepts[i] = registry.getConcept(names[i]);
+
+		Vector<Link> ret = new Vector<Link>(linkCount);
+		for(int i = 0; i < linkCount; i++) {
+			Influence influence = linkPositive[i] ? Influence.INCREASES : Influence.DECREASES;
+			ret.add(new Link(concepts[linkSource[i]], influence, concepts[linkTarget[i]]));
+		}
+
+		System.out.println("Read " + symbolCount + " concepts and " + linkCount + " links" +
+		                   (malformedLines > 0 ? "; skipped " + malformedLines + " malformed lines" : ""));
+		return ret;
+	}
+
+	/**
+	 * Maps the file and walks its bytes once, recording the
+	 * distinct names and the links between them
+	 * @param filename
+	 * @throws IOException
+	 */
+	private void scan(String filename) throws IOException {
+		try(RandomAccessFile file = new RandomAccessFile(filename, "r");
+			FileChannel channel = file.getChannel()) {
+			long size = channel.size();
+			if(size > Integer.MAX_VALUE) throw new IOException("Network file is too large to map: " + filename);
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+
+		int end = buffer.limit();
+		int pos = skipLine(0, end); // Skip the header
+
+		int[] fieldStart = new int[3];
+		int[] fieldEnd   = new int[3];
+		while(pos < end) {
+			int fields = 0;
+			int start  = pos;
+			byte b     = 0;
+			// Split the line at the first two commas; the third field runs to the next comma or end of line
+			while(pos < end && (b = buffer.get(pos)) != '\n' && b != '\r') {
+				if(b == ',') {
+					if(fields < 3) {
+						fieldStart[fields] = start;
+						fieldEnd[fields]   = pos;
+					}
+					fields++;
+					start = pos + 1;
+				}
+				pos++;
+			}
+			if(fields < 3) {
+				fieldStart[fields] = start;
+				fieldEnd[fields]   = pos;
+			}
+			fields++;
+			int lineLength = pos - fieldStart[0];
+			pos = skipLineEnd(pos, end);
+
+			if(lineLength == 0) continue; // Blank line
+			if(fields < 3 || fieldEnd[2] == fieldStart[2]) {
+				malformedLines++;
+				continue;
+			}
+			add(symbol(fieldStart[0], fieldEnd[0]), symbol(fieldStart[1], fieldEnd[1]), matches(fieldStart[2], fieldEnd[2], POSITIVE));
+		}
+	}
+
+	private int skipLine(int pos, int end) {
+		while(pos < end && buffer.get(pos) != '\n' && buffer.get(pos) != '\r') pos++;
+		return skipLineEnd(pos, end);
+	}
+
+	// Steps over '\n', '\r' or "\r\n"
+	private int skipLineEnd(int pos, int end) {
+		if(pos < end && buffer.get(pos) == '\r') pos++;
+		if(pos < end && buffer.get(pos) == '\n') pos++;
+		return pos;
+	}
+
+	private boolean matches(int start, int end, byte[] value) {
+		if(end - start != value.length) return false;
+		for(int i = 0; i < value.length; i++) if(buffer.get(start + i) != value[i]) return false;
+		return true;
+	}
+
+	private boolean sameBytes(int startA, int startB, int length) {
+		for(int i = 0; i < length; i++) if(buffer.get(startA + i) != buffer.get(startB + i)) return false;
+		return true;
+	}
+
+	/**
+	 * Returns the index of the symbol for the bytes in [start, end),
+	 * adding it if it has not been seen before
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	private int symbol(int start, int end) {
+		int length = end - start;
+		int hash   = 0;
+		for(int i = start; i < end; i++) hash = 31 * hash + buffer.get(i);
+
+		int mask = table.length - 1;
+		int slot = mix(hash) & mask;
+		while(table[slot] != 0) {
+			int s = table[slot] - 1;
+			if(symbolHash[s] == hash && symbolLength[s] == length && sameBytes(symbolStart[s], start, length)) return s;
+			slot = (slot + 1) & mask;
+		}
+
+		if(symbolCount == symbolHash.length) {
+			symbolHash   = Arrays.copyOf(symbolHash,   symbolCount * 2);
+			symbolStart  = Arrays.copyOf(symbolStart,  symbolCount * 2);
+			symbolLength = Arrays.copyOf(symbolLength, symbolCount * 2);
+		}
+		int s = symbolCount++;
+		symbolHash[s]   = hash;
+		symbolStart[s]  = start;
+		symbolLength[s] = length;
+		table[slot]     = s + 1;
+		if(symbolCount * 2 > table.length) rehash();
+		return s;
+	}
+
+	private void rehash() {
+		table = new int[table.length * 2];
+		int mask = table.length - 1;
+		for(int s = 0; s < symbolCount; s++) {
+			int slot = mix(symbolHash[s]) & mask;
+			while(table[slot] != 0) slot = (slot + 1) & mask;
+			table[slot] = s + 1;
+		}
+	}
+
+	private static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private void add(int source, int target, boolean positive) {
+		if(linkCount == linkSource.length) {
+			linkSource   = Arrays.copyOf(linkSource,   linkCount * 2);
+			linkTarget   = Arrays.copyOf(linkTarget,   linkCount * 2);
+			linkPositive = Arrays.copyOf(linkPositive, linkCount * 2);
+		}
+		linkSource[linkCount]   = source;
+		linkTarget[linkCount]   = target;
+		linkPositive[linkCount] = positive;
+		linkCount++;
+	}
+
+}
@@ -1,12 +1,13 @@
 package jCLD.surenet.analysis;
 
-import java.util.HashMap;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.LinkedList;
-import java.util.Map;
 import java.util.Set;
-import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
 
+import jCLD.surenet.utils.DistanceKernel;
+import jCLD.surenet.utils.LevenshteinPattern;
 import jCLD.surenet.utils.Utilities;
 
 /**
@@ -26,6 +27,11 @@ import jCLD.surenet.utils.Utilities;
  * A Sequence is a 'Loop' if the influence of the last link
  * has a target equal to the source of the first link 
  * 
+ * A loop stored in a LoopSet is a view of an entry in the set's
+ * LoopArena rather than a list of links; it reads its concepts
+ * and polarities from the arena. Changing a view (rotating or
+ * trimming it) first gives it its own list of links.
+ * 
  */
 public class Sequence implements Comparable{
 	
@@ -44,16 +50,47 @@ public class Sequence implements Comparable{
 		BALANCING_LOOP
 	}
 	
+	/**
+	 * Specifies how the distance between two loops is calculated;
+	 * all give the same values:
+	 * 
+	 *  - Rotations = Bit-parallel Levenshtein distance against each rotation of the other loop
+	 *  - Cyclic    = Maes' cyclic edit distance, O(mn log m)
+	 *  - Verify    = Both, reporting any pair on which they disagree
+	 */
+	public static enum DistanceMethod {
+		ROTATIONS,
+		CYCLIC,
+		VERIFY
+	}
+	
+	private static DistanceMethod distanceMethod = DistanceMethod.ROTATIONS;
+	private static AtomicLong     mismatches     = new AtomicLong();
 	
-	private static int idCounter = 0;
+	public static void setDistanceMethod(DistanceMethod method) {
+		distanceMethod = method;
+	}
+	
+	public static DistanceMethod getDistanceMethod() {
+		return distanceMethod;
+	}
+	
+	/**
+	 * Returns the number of pairs on which the distance methods
+	 * (or distanceAtMost) have disagreed in VERIFY mode
+	 * @return
+	 */
+	public static long getDistanceMismatches() {
+		return mismatches.get();
+	}
 	
-	LinkedList<Link>   links = new LinkedList<Link>();
-	Vector<Integer>    values = null;
 	
-	private Vector<Integer> l1 = new Vector<Integer>();
-	private Vector<Integer> l2 = new Vector<Integer>();
+	private static int idCounter = 0;
 	
-	private Map<Long, Double> distances = new HashMap<Long, Double>();
+	LinkedList<Link>   links = new LinkedList<Link>(); // Null for a view of a LoopArena
+	LoopArena          arena = null;
+	int                arenaIndex;
+	BitSet             sources = new BitSet(); // IDs of the source concepts; null for a view
 
 	boolean isLoop   = false;
 	boolean isClosed = false;
@@ -65,13 +102,44 @@ public class Sequence implements Comparable{
 	String shortRep = null;
 	
 	int [] sequenceAsInts;
+	LevenshteinPattern pattern = null; // Built from the concept IDs when first needed
 	
 	public int[] getSequenceAsInts() {
 		//System.out.println("Getting sequence: " + id + " " + (sequenceAsInts == null ? "Null" : "Found"));
+		if(arena != null) return arena.copyConceptIds(arenaIndex);
 		return 
 			(sequenceAsInts != null ? 
 				sequenceAsInts :
-			    (sequenceAsInts = Utilities.vectorToIntArray(getListOfValues()))).clone();
+			    (sequenceAsInts = getListOfValues())).clone();
+	}
+	
+	/**
+	 * Returns the array that holds this sequence's concept IDs, to be
+	 * read in place from valuesOffset() for getSize() values without
+	 * copying them; the array must not be modified
+	 * @return
+	 */
+	int[] valuesArray() {
+		if(arena != null) return arena.getConceptData();
+		int[] values = sequenceAsInts;
+		if(values == null) sequenceAsInts = values = getListOfValues();
+		return values;
+	}
+	
+	int valuesOffset() {
+		return arena != null ? arena.offset(arenaIndex) : 0;
+	}
+	
+	/**
+	 * Returns the concept IDs prepared for bit-parallel distance
+	 * calculations; built once, and shared by every comparison
+	 * with this sequence
+	 * @return
+	 */
+	LevenshteinPattern getPattern() {
+		LevenshteinPattern p = pattern;
+		if(p == null) pattern = p = new LevenshteinPattern(getSequenceAsInts());
+		return p;
 	}
 	
 	/**
@@ -97,7 +165,7 @@ public class Sequence implements Comparable{
 	 * @param toCopy
 	 */
 	public Sequence(Sequence toCopy) {
-		for(Link l: toCopy.links) {
+		for(Link l: toCopy.getLinks()) {
 			Link newLink = new Link(l);
 			links.add(newLink); // Deep copy
 		}
@@ -105,6 +173,50 @@ public class Sequence implements Comparable{
 		id = idCounter++;
 	}
 	
+	/**
+	 * Creates a view of loop i of a LoopArena
+	 * @param a
+	 * @param i
+	 */
+	Sequence(LoopArena a, int i) {
+		links      = null;
+		sources    = null;
+		arena      = a;
+		arenaIndex = i;
+		isLoop     = true;
+		isClosed   = true;
+		countOfNegativeInfluenceLinks = a.negativeCount(i);
+		id = idCounter++;
+	}
+	
+	/**
+	 * Returns the links of this sequence; for a view, a new
+	 * list of links read from the arena
+	 * @return
+	 */
+	LinkedList<Link> getLinks() {
+		if(arena == null) return links;
+		LinkedList<Link> ret = new LinkedList<Link>();
+		int length = arena.length(arenaIndex);
+		for(int k = 0; k < length; k++) {
+			ret.add(new Link(arena.getConcept(arenaIndex, k),
+			                 arena.isNegative(arenaIndex, k) ? Influence.DECREASES : Influence.INCREASES,
+			                 arena.getConcept(arenaIndex, k + 1 == length ? 0 : k + 1)));
+		}
+		return ret;
+	}
+	
+	/**
+	 * Turns a view into a sequence with its own links, so that it can be changed
+	 */
+	private void detach() {
+		if(arena == null) return;
+		links   = getLinks();
+		sources = new BitSet();
+		arena   = null;
+		init();
+	}
+	
 	/**
 	 * Appends a link to the end of this sequence.
 	 * A closed Sequence (either closed or a loop)
@@ -114,8 +226,22 @@ public class Sequence implements Comparable{
 	 */
 	public boolean addLink(Link l) {
 		if(isClosed) return false;
+		if(links.size() == 0) {
+			links.add(l);
+			init();
+			return true;
+		}
+		// Only the new link can change the state, so update it rather than re-scanning
 		links.add(l);
-		init();
+		sources.set(l.source.id);
+		if(l.influence == Influence.DECREASES) countOfNegativeInfluenceLinks++;
+		if(sources.get(l.target.id)) {
+			isClosed = true;
+			isLoop   = (links.peekFirst().source.id == l.target.id);
+		}
+		sequenceAsInts = null;
+		pattern        = null;
+		shortRep       = null;
 		return true;
 	}
 	
@@ -132,6 +258,8 @@ public class Sequence implements Comparable{
 	 * closed, and if so is it a loop
 	 */
 	private void detectClosedLoop() {
+		sources.clear();
+		for(Link l: links) sources.set(l.source.id);
 		int idx = (links.size() == 0) ? -1 : indexOfSourceWithConcept(links.peekLast().target); 
 		isClosed = (idx != -1);
 		isLoop   = (idx ==  0);		
@@ -140,14 +268,15 @@ public class Sequence implements Comparable{
 	/**
 	 * Sets the count of negative influence links,
 	 * detects whether the loop is closed or not,
-	 * and re-sets the list of values to null
-	 * (to be re-initialized if needed).
+	 * and re-sets the array of values and the string
+	 * representation to null (to be re-created if needed).
 	 */
 	private void init() {
 		setCountOfNegativeInfluenceLinks();
 		detectClosedLoop();
-		values = null;
-		shortRep = createShortRep();
+		sequenceAsInts = null;
+		pattern        = null;
+		shortRep       = null;
 	}
 	
 	/**
@@ -157,6 +286,7 @@ public class Sequence implements Comparable{
 	 * @return
 	 */
 	public boolean hasSource(Concept c) {
+		if(sources != null) return sources.get(c.id);
 		return (indexOfSourceWithConcept(c) != -1);
 	}
 	
@@ -168,6 +298,10 @@ public class Sequence implements Comparable{
 	 * @return
 	 */
 	private int indexOfSourceWithConcept(Concept c) {
+		if(arena != null) {
+			for(int k = 0; k < arena.length(arenaIndex); k++) if(arena.conceptId(arenaIndex, k) == c.id) return k;
+			return -1;
+		}
 		int i = 0;
 		for(Link l: links) {
 			if(l.source.compareTo(c) == 0) return i;
@@ -182,7 +316,11 @@ public class Sequence implements Comparable{
 	 */
 	public void rotate() {
 		if(!isLoop) return; // Rotation only applies to loops
+		detach();
 		if(links.size() > 0) links.add(links.remove(0));
+		sequenceAsInts = null;
+		pattern        = null;
+		shortRep       = null;
 	}
 	
 	/**
@@ -194,9 +332,10 @@ public class Sequence implements Comparable{
 	public void rotate(Concept c) {
 		if(!isLoop)                           return; // Rotation only applies to loops
 		if(indexOfSourceWithConcept(c) == -1) return; // Cannot rotate to X if X is not present
+		detach();
 		if(links.size() == 0)                 return; // Cannot do next step if size is zero
 		while(links.get(0).source.compareTo(c) != 0) rotate();
-		// Do not need to call init- Does not change any of the other state variables
+		// Do not need to call init- Does not change any of the other state variables (rotate() resets the cached values)
 	}
 
 	/**
@@ -205,6 +344,7 @@ public class Sequence implements Comparable{
 	 */
 	public void rotateToStandard() {
 		if(!isLoop) return;           // Rotation only applies to loops
+		if(arena != null) return;     // Views are stored in the standard position
 		if(links.size() == 0) return; // Meaningless
 		Concept first = links.get(0).source;
 		for(Link l: links) if(l.source.compareTo(first) < 0) first = l.source;
@@ -218,7 +358,7 @@ public class Sequence implements Comparable{
 	 * @return
 	 */
     public int getSize() {
-    	return links.size();
+    	return arena != null ? arena.length(arenaIndex) : links.size();
     }
     
     /**
@@ -232,6 +372,7 @@ public class Sequence implements Comparable{
      * the new link is positive; otherwise it is negative.
      */
     public void trimHead() {
+    	detach();
     	if(links.size() == 0) return;
     	Influence origInf = links.peekFirst().influence;
     	links.remove(0);
@@ -257,6 +398,7 @@ public class Sequence implements Comparable{
      * the new link is positive; otherwise it is negative.
      */
     public void trimTail() {
+    	detach();
     	if(links.size() == 0) return;
     	if(!isClosed) links.remove(links.size() - 1); // This is simple if not closed...
     	else {
@@ -276,6 +418,7 @@ public class Sequence implements Comparable{
      * @return
      */
     public Concept head() {
+    	if(arena != null) return arena.getConcept(arenaIndex, 0);
     	return links.size() > 0 ? links.get(0).source : null;
     }
 
@@ -284,6 +427,7 @@ public class Sequence implements Comparable{
      * @return
      */
     public Concept lastSource() {
+    	if(arena != null) return arena.getConcept(arenaIndex, arena.length(arenaIndex) - 1);
     	return links.size() > 0 ? links.peekLast().source : null;
     }
     
@@ -295,6 +439,7 @@ public class Sequence implements Comparable{
      * @return
      */
     public Concept tail() {
+    	if(arena != null) return arena.getConcept(arenaIndex, 0);
     	return links.size() > 0 ? links.peekLast().target : null;
     }
 
@@ -306,16 +451,15 @@ public class Sequence implements Comparable{
      * if this is not a loop, the last link target will
      * be omitted.
      * 
-     * This value is memo-ized as it is used repeatedly;
-     * changes to the sequence should null the memoized
+     * The result is memo-ized in sequenceAsInts as it is used
+     * repeatedly; changes to the sequence null the memoized
      * copy out and allow it to be regenerated when needed.
      * @return
      */
-    private Vector<Integer> getListOfValues() {
-    	if(values != null) return values;
-    	Vector<Integer> ret = new Vector<Integer>();
-    	for(Link L: links) ret.add(L.source.id);
-    	values = ret;
+    private int[] getListOfValues() {
+    	int[] ret = new int[links.size()];
+    	int i = 0;
+    	for(Link L: links) ret[i++] = L.source.id;
     	return ret;
     }
     
@@ -364,8 +508,8 @@ public class Sequence implements Comparable{
     	if(doChecks) {
 	    	if(    isLoop                                     == false || 
 		    	   other.isLoop                               == false ||
-		    	   links.size()                               ==  0    ||
-		    	   other.links.size()                         ==  0) {
+		    	   getSize()                                  ==  0    ||
+		    	   other.getSize()                            ==  0) {
 	    	  System.out.println("Not valid- aborting... " + System.lineSeparator());
 	    	  return Float.POSITIVE_INFINITY; // Can only compare two valid loops
 	    	}
@@ -381,12 +525,95 @@ public class Sequence implements Comparable{
         
     
     
+    /**
+     * Returns distLevenshtein(other) if it is less than k, or k if
+     * the distance is k or more; the calculation stops as soon as
+     * it is clear the distance will reach k, so it costs far less
+     * than the full distance when k is small (see
+     * DistanceKernel.levenshteinWithRotationAtMost).
+     * In VERIFY mode the result is checked against the full distance.
+     * @param other
+     * @param k
+     * @return
+     */
+    public int distanceAtMost(Sequence other, int k) {
+    	if(this.equals(other)) return 0;
+    	int ret = DistanceKernel.forCurrentThread().levenshteinWithRotationAtMost(
+    		valuesArray(), valuesOffset(), getSize(), other.valuesArray(), other.valuesOffset(), other.getSize(), k);
+    	if(distanceMethod == DistanceMethod.VERIFY) {
+    		int full = distLevenshtein(other);
+    		if(ret != Math.min(full, k)) {
+    			mismatches.incrementAndGet();
+    			System.err.println("Distance mismatch! Seq 1 = " + id + " Seq 2 = " + other.id + " At most " + k + ": " + ret + " Full: " + full);
+    		}
+    	}
+    	return ret;
+    }
+    
+    /**
+     * Returns a lower bound on distLevenshtein(other), without
+     * running a distance kernel. Every value of one sequence that is
+     * not in the other must be deleted or substituted, so the distance
+     * is at least the number of distinct values of either sequence
+     * that the other lacks (for loops, whose concepts are all
+     * different, this is the larger size less the concepts they
+     * share), and at least the difference in their sizes.
+     * @param other
+     * @return
+     */
+    public int distanceLowerBound(Sequence other) {
+    	LevenshteinPattern p      = getPattern();
+    	LevenshteinPattern q      = other.getPattern();
+    	int                shared = p.countShared(q);
+    	return Math.max(Math.abs(getSize() - other.getSize()), Math.max(p.distinctCount(), q.distinctCount()) - shared);
+    }
+    
+    /**
+     * Returns an upper bound on distLevenshtein(other), without
+     * running a distance kernel: the values the two sequences have in
+     * common at the start and at the end (in their current rotations)
+     * can be kept, and the rest substituted, deleted or inserted. If
+     * one sequence starts with the whole of the other, this is exactly
+     * the difference in their sizes.
+     * @param other
+     * @return
+     */
+    public int distanceUpperBound(Sequence other) {
+    	int[] a      = valuesArray();
+    	int   aFrom  = valuesOffset();
+    	int   m      = getSize();
+    	int[] b      = other.valuesArray();
+    	int   bFrom  = other.valuesOffset();
+    	int   n      = other.getSize();
+    	int   common = Math.min(m, n);
+    	int   prefix = 0;
+    	while(prefix < common && a[aFrom + prefix] == b[bFrom + prefix]) prefix++;
+    	int   suffix = 0;
+    	while(prefix + suffix < common && a[aFrom + m - 1 - suffix] == b[bFrom + n - 1 - suffix]) suffix++;
+    	return Math.max(m, n) - prefix - suffix;
+    }
+    
     public int distLevenshtein(Sequence other) {
     	if(this.equals(other)) return 0;
-    	int[] a = this.getSequenceAsInts();  // Utilities.vectorToIntArray(this.getListOfValues());
-    	int[] b = other.getSequenceAsInts(); // Utilities.vectorToIntArray(other.getListOfValues());
-
-    	return Utilities.distLevenshteinWithRotation(a, b);
+    	DistanceKernel kernel = DistanceKernel.forCurrentThread();
+    	int[]          b      = other.valuesArray();
+    	int            bFrom  = other.valuesOffset();
+    	int            n      = other.getSize();
+    	switch(distanceMethod) {
+    	case CYCLIC:
+    		return kernel.cyclicDistance(valuesArray(), valuesOffset(), getSize(), b, bFrom, n);
+    	case VERIFY:
+    		int rotation = kernel.distanceWithRotation(getPattern(), b, bFrom, n);
+    		int cyclic   = kernel.cyclicDistance(valuesArray(), valuesOffset(), getSize(), b, bFrom, n);
+    		if(rotation != cyclic) {
+    			mismatches.incrementAndGet();
+    			System.err.println("Distance mismatch! Seq 1 = " + id + " Seq 2 = " + other.id + " Rotations: " + rotation + " Cyclic: " + cyclic);
+    		}
+    		return rotation;
+    	default:
+    		// Bit-parallel; gives the same result as Utilities.distLevenshteinWithRotation
+    		return kernel.distanceWithRotation(getPattern(), b, bFrom, n);
+    	}
 //    	
 //    	// For any two sequences that differ, the minimum
 //    	// Levenshtein distance will be the _larger_ of
@@ -429,7 +656,7 @@ public class Sequence implements Comparable{
      */
     public int numberOfElementsNotFoundInAnotherSequence(Sequence other) {
     	int count = 0;
-    	for(Link link: links) {
+    	for(Link link: getLinks()) {
     		if(!other.hasSource(link.source)) count++;
     	}
     	return count;
@@ -452,6 +679,7 @@ public class Sequence implements Comparable{
      */
     public boolean equals(Sequence other) {
     	if(getSize() != other.getSize()) return false;
+    	if(arena != null && arena == other.arena) return arenaIndex == other.arenaIndex; // Arenas hold no duplicates
     	return (this.toString().compareTo(other.toString()) == 0);
     }
 
@@ -472,10 +700,13 @@ public class Sequence implements Comparable{
      * @return
      */
     public String toString(){
+    	if(arena != null) return createShortRep(); // Not kept, to keep views small
+    	if(shortRep == null) shortRep = createShortRep();
     	return shortRep;
     }
     
     private String createRepresentation(){
+    	LinkedList<Link> links = getLinks();
     	String ret = isLoop ? "LOOP: " : isClosed ? "CLOSED: " : "SEQUENCE: ";
     	if(links.size() == 0) ret += "<EMPTY>";
     	else {
@@ -491,6 +722,17 @@ public class Sequence implements Comparable{
     }
     
     private String createShortRep(){
+    	if(arena != null) {
+    		StringBuilder ret = new StringBuilder("LOOP: ");
+    		int length = arena.length(arenaIndex);
+    		ret.append(arena.conceptId(arenaIndex, 0));
+    		for(int k = 0; k < length; k++) {
+    			ret.append(arena.isNegative(arenaIndex, k) ? "-" : "+");
+    			if(k == length - 1) ret.append("{").append(arena.conceptId(arenaIndex, 0)).append("}");
+    			else                ret.append(arena.conceptId(arenaIndex, k + 1));
+    		}
+    		return ret.toString();
+    	}
     	String ret = isLoop ? "LOOP: " : isClosed ? "CLOSED: " : "SEQUENCE: ";
     	if(links.size() == 0) ret += "<EMPTY>";
     	else {
@@ -522,6 +764,10 @@ public class Sequence implements Comparable{
      */
     public Set<Concept> getAllConcepts(){
     	Set<Concept> ret = new HashSet<Concept>();
+    	if(arena != null) {
+    		for(int k = 0; k < arena.length(arenaIndex); k++) ret.add(arena.getConcept(arenaIndex, k));
+    		return ret;
+    	}
     	for(Link l: links) ret.add(l.source);
     	ret.add(links.peekLast().target);
     	return ret;
@@ -535,13 +781,20 @@ public class Sequence implements Comparable{
      * @return
      */
     public boolean containsLink(Concept source, Concept target) {
+    	if(arena != null) {
+    		int length = arena.length(arenaIndex);
+    		for(int k = 0; k < length; k++) {
+    			if(arena.conceptId(arenaIndex, k) == source.id && arena.conceptId(arenaIndex, k + 1 == length ? 0 : k + 1) == target.id) return true;
+    		}
+    		return false;
+    	}
     	for(Link l: links) if((l.source.compareTo(source) == 0) && (l.target.compareTo(target) == 0)) return true;
     	return false;
     }
 
 	@Override
 	public int compareTo(Object other){
-		return (other instanceof Sequence) ? shortRep.compareTo(((Sequence)other).shortRep) : -1;
+		return (other instanceof Sequence) ? toString().compareTo(other.toString()) : -1;
 	}
     
 }
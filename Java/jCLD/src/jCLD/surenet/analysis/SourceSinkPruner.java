@@ -0,0 +1,110 @@
+package jCLD.surenet.analysis;
+
+/**
+ * Tracks which nodes of a CsrGraph can still participate in a loop.
+ *
+ * A node with no live inward links (a source) or no live outward
+ * links (a sink) cannot be in a loop. Removing it can turn its
+ * neighbors into sources or sinks, so removals cascade. Live
+ * in- and out-degree counters and a worklist let the whole cascade
+ * run in O(V+E): each node is queued at most once and each link
+ * is looked at once from each end.
+ */
+public class SourceSinkPruner{
+
+	private final CsrGraph  graph;
+	private final boolean[] alive;
+	private final boolean[] queued;
+	private final int[]     inDegree;   // Count of live inward links
+	private final int[]     outDegree;  // Count of live outward links
+	private final int[]     queue;
+	private int             head = 0;
+	private int             tail = 0;
+	private int             aliveCount;
+
+	/**
+	 * Creates a pruner with every node live, then removes
+	 * all sources and sinks
+	 * @param g
+	 */
+	public SourceSinkPruner(CsrGraph g) {
+		graph      = g;
+		int n      = g.size();
+		alive      = new boolean[n];
+		queued     = new boolean[n];
+		inDegree   = new int[n];
+		outDegree  = new int[n];
+		queue      = new int[n];
+		aliveCount = n;
+		for(int v = 0; v < n; v++) {
+			alive[v]     = true;
+			inDegree[v]  = g.inDegree(v);
+			outDegree[v] = g.outDegree(v);
+			if(inDegree[v] == 0 || outDegree[v] == 0) enqueue(v);
+		}
+		drain();
+	}
+
+	public boolean isAlive(int v) {
+		return alive[v];
+	}
+
+	/**
+	 * Returns the live flags, indexed by node. The array belongs
+	 * to the pruner and must not be modified.
+	 * @return
+	 */
+	boolean[] getAliveMask() {
+		return alive;
+	}
+
+	/**
+	 * Returns the number of nodes that are still live
+	 * @return
+	 */
+	public int aliveCount() {
+		return aliveCount;
+	}
+
+	/**
+	 * Removes a node (for example, a start node whose loops have
+	 * all been found), then removes any sources and sinks that
+	 * this creates.
+	 * @param v
+	 * @return the number of nodes removed, including v
+	 */
+	public int retire(int v) {
+		if(!alive[v]) return 0;
+		int before = aliveCount;
+		remove(v);
+		drain();
+		return before - aliveCount;
+	}
+
+	private void enqueue(int v) {
+		if(queued[v]) return;
+		queued[v]     = true;
+		queue[tail++] = v;
+	}
+
+	private void drain() {
+		while(head < tail) {
+			int v = queue[head++];
+			if(alive[v]) remove(v);
+		}
+	}
+
+	private void remove(int v) {
+		alive[v] = false;
+		aliveCount--;
+		for(int e = graph.outStart(v); e < graph.outEnd(v); e++) {
+			int w = graph.target(e);
+			if(alive[w] && --inDegree[w] == 0) enqueue(w);
+		}
+		for(int e = graph.inStart(v); e < graph.inEnd(v); e++) {
+			int u = graph.source(e);
+			if(alive[u] && --outDegree[u] == 0) enqueue(u);
+		}
+	}
+
+}
@@ -0,0 +1,158 @@
+package jCLD.surenet.analysis;
+
+import java.util.Arrays;
+
+/**
+ * Splits the nodes of a CsrGraph into strongly connected
+ * components using Tarjan's algorithm. A loop can never cross
+ * from one component to another, so each component can be
+ * searched for loops on its own.
+ *
+ * The depth-first search uses an explicit stack. Components are
+ * numbered 0..getCount()-1; nodes that were not included get
+ * the label -1. The members of each component are listed in
+ * ascending node order.
+ */
+public class StronglyConnectedComponents{
+
+	private final int[]     label;
+	private final int       count;
+	private final int[]     offsets;
+	private final int[]     members;
+	private final boolean[] cyclic;
+
+	/**
+	 * Finds the components of the graph, using only the included
+	 * nodes (include may be null to use all of them)
+	 * @param graph
+	 * @param include
+	 */
+	public StronglyConnectedComponents(CsrGraph graph, boolean[] include) {
+		int n = graph.size();
+		label = new int[n];
+		Arrays.fill(label, -1);
+
+		int[]     index   = new int[n];
+		int[]     low     = new int[n];
+		boolean[] onStack = new boolean[n];
+		int[]     stack   = new int[n];
+		int[]     frame   = new int[n];  // Node on each depth-first search frame
+		int[]     cursor  = new int[n];  // Next edge to follow for each frame
+		int       top     = 0;
+		int       depth   = 0;
+		int       next    = 0;
+		int       found   = 0;
+		Arrays.fill(index, -1);
+
+		for(int root = 0; root < n; root++) {
+			if(index[root] != -1 || (include != null && !include[root])) continue;
+			index[root]     = low[root] = next++;
+			stack[top++]    = root;
+			onStack[root]   = true;
+			frame[depth]    = root;
+			cursor[depth++] = graph.outStart(root);
+			while(depth > 0) {
+				int v = frame[depth - 1];
+				int e = cursor[depth - 1];
+				if(e < graph.outEnd(v)) {
+					cursor[depth - 1]++;
+					int w = graph.target(e);
+					if(include != null && !include[w]) continue;
+					if(index[w] == -1) {
+						index[w]      = low[w] = next++;
+						stack[top++]  = w;
+						onStack[w]    = true;
+						frame[depth]  = w;
+						cursor[depth++] = graph.outStart(w);
+					}
+					else if(onStack[w]) low[v] = Math.min(low[v], index[w]);
+				}
+				else {
+					depth--;
+					if(low[v] == index[v]) {
+						int w;
+						do {
+							w = stack[--top];
+							onStack[w] = false;
+							label[w]   = found;
+						} while(w != v);
+						found++;
+					}
+					if(depth > 0) {
+						int parent = frame[depth - 1];
+						low[parent] = Math.min(low[parent], low[v]);
+					}
+				}
+			}
+		}
+		count = found;
+
+		// Group the members by component, in ascending node order
+		offsets = new int[count + 1];
+		for(int v = 0; v < n; v++) if(label[v] != -1) offsets[label[v] + 1]++;
+		for(int c = 0; c < count; c++) offsets[c + 1] += offsets[c];
+		members = new int[offsets[count]];
+		int[] fill = Arrays.copyOf(offsets, count);
+		for(int v = 0; v < n; v++) if(label[v] != -1) members[fill[label[v]]++] = v;
+
+		// A component can hold a loop if it has more than one node, or one node linked to itself
+		cyclic = new boolean[count];
+		for(int c = 0; c < count; c++) {
+			if(size(c) > 1) cyclic[c] = true;
+			else {
+				int v = members[offsets[c]];
+				for(int e = graph.outStart(v); e < graph.outEnd(v); e++) if(graph.target(e) == v) cyclic[c] = true;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of components
+	 * @return
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the component of node v, or -1 if it was not included
+	 * @param v
+	 * @return
+	 */
+	public int getComponent(int v) {
+		return label[v];
+	}
+
+	/**
+	 * Returns the component labels, indexed by node. The array
+	 * belongs to this object and must not be modified.
+	 * @return
+	 */
+	int[] getLabels() {
+		return label;
+	}
+
+	public int size(int c) {
+		return offsets[c + 1] - offsets[c];
+	}
+
+	/**
+	 * Returns the i'th member (in ascending node order) of component c
+	 * @param c
+	 * @param i
+	 * @return
+	 */
+	public int member(int c, int i) {
+		return members[offsets[c] + i];
+	}
+
+	/**
+	 * Returns true if component c contains at least one loop
+	 * @param c
+	 * @return
+	 */
+	public boolean isCyclic(int c) {
+		return cyclic[c];
+	}
+
+}
@@ -0,0 +1,162 @@
+package jCLD.surenet.utils;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A compressed set of non-negative ints, laid out like a Roaring
+ * bitmap:
+ *
+ *   Chambi, Lemire, Kaser and Godin, "Better bitmap performance
+ *   with Roaring bitmaps", Software: Practice and Experience 46(5), 2016.
+ *
+ * Values are grouped by their high 16 bits into containers. A
+ * container with few values holds their low 16 bits as a sorted
+ * char array; once it passes 4096 values it switches to a 65536-bit
+ * bitmap, which is then the smaller of the two. Values are usually
+ * added in increasing order, which appends to the last container.
+ */
+public class CompressedBitmap{
+
+	private static final int ARRAY_LIMIT = 4096;
+
+	private char[]   keys        = new char[2];
+	private char[][] arrays      = new char[2][];  // Sorted low bits; null if the container is a bitmap
+	private long[][] bitmaps     = new long[2][];
+	private int[]    sizes       = new int[2];
+	private int      containers  = 0;
+	private int      cardinality = 0;
+
+	/**
+	 * Adds a value
+	 * @param x
+	 * @return true if the value was not already present
+	 */
+	public boolean add(int x) {
+		char high = (char)(x >>> 16);
+		char low  = (char)x;
+		int  c    = (containers > 0 && keys[containers - 1] == high) ? containers - 1 : findContainer(high);
+		if(c < 0) c = insertContainer(-c - 1, high);
+
+		if(bitmaps[c] != null) {
+			long bit = 1L << low;
+			if((bitmaps[c][low >>> 6] & bit) != 0) return false;
+			bitmaps[c][low >>> 6] |= bit;
+		}
+		else {
+			char[] a    = arrays[c];
+			int    size = sizes[c];
+			int    pos  = (size > 0 && a[size - 1] < low) ? -size - 1 : Arrays.binarySearch(a, 0, size, low);
+			if(pos >= 0) return false;
+			pos = -pos - 1;
+			if(size == ARRAY_LIMIT) {
+				toBitmap(c);
+				bitmaps[c][low >>> 6] |= 1L << low;
+			}
+			else {
+				if(size == a.length) arrays[c] = a = Arrays.copyOf(a, Math.min(ARRAY_LIMIT, a.length * 2));
+				System.arraycopy(a, pos, a, pos + 1, size - pos);
+				a[pos] = low;
+			}
+		}
+		sizes[c]++;
+		cardinality++;
+		return true;
+	}
+
+	public boolean contains(int x) {
+		int c = findContainer((char)(x >>> 16));
+		if(c < 0) return false;
+		char low = (char)x;
+		if(bitmaps[c] != null) return (bitmaps[c][low >>> 6] & (1L << low)) != 0;
+		return Arrays.binarySearch(arrays[c], 0, sizes[c], low) >= 0;
+	}
+
+	/**
+	 * Returns the number of values in the set
+	 * @return
+	 */
+	public int cardinality() {
+		return cardinality;
+	}
+
+	public boolean isEmpty() {
+		return cardinality == 0;
+	}
+
+	/**
+	 * Passes each value to the consumer, in increasing order
+	 * @param consumer
+	 */
+	public void forEach(IntConsumer consumer) {
+		for(int c = 0; c < containers; c++) {
+			int base = keys[c] << 16;
+			if(bitmaps[c] != null) {
+				long[] b = bitmaps[c];
+				for(int w = 0; w < b.length; w++) {
+					long word = b[w];
+					while(word != 0) {
+						consumer.accept(base | (w << 6) | Long.numberOfTrailingZeros(word));
+						word &= word - 1;
+					}
+				}
+			}
+			else {
+				char[] a = arrays[c];
+				for(int i = 0; i < sizes[c]; i++) consumer.accept(base | a[i]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the values, in increasing order
+	 * @return
+	 */
+	public int[] toArray() {
+		int[] ret = new int[cardinality];
+		int[] pos = new int[1];
+		forEach(x -> ret[pos[0]++] = x);
+		return ret;
+	}
+
+	private int findContainer(char high) {
+		int lo = 0;
+		int hi = containers - 1;
+		while(lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if(keys[mid] < high)      lo = mid + 1;
+			else if(keys[mid] > high) hi = mid - 1;
+			else                      return mid;
+		}
+		return -lo - 1;
+	}
+
+	private int insertContainer(int pos, char high) {
+		if(containers == keys.length) {
+			int n   = keys.length * 2;
+			keys    = Arrays.copyOf(keys,    n);
+			arrays  = Arrays.copyOf(arrays,  n);
+			bitmaps = Arrays.copyOf(bitmaps, n);
+			sizes   = Arrays.copyOf(sizes,   n);
+		}
+		int move = containers - pos;
+		System.arraycopy(keys,    pos, keys,    pos + 1, move);
+		System.arraycopy(arrays,  pos, arrays,  pos + 1, move);
+		System.arraycopy(bitmaps, pos, bitmaps, pos + 1, move);
+		System.arraycopy(sizes,   pos, sizes,   pos + 1, move);
+		keys[pos]    = high;
+		arrays[pos]  = new char[4];
+		bitmaps[pos] = null;
+		sizes[pos]   = 0;
+		containers++;
+		return pos;
+	}
+
+	private void toBitmap(int c) {
+		long[] b = new long[1024];
+		for(int i = 0; i < sizes[c]; i++) b[arrays[c][i] >>> 6] |= 1L << arrays[c][i];
+		bitmaps[c] = b;
+		arrays[c]  = null;
+	}
+
+}
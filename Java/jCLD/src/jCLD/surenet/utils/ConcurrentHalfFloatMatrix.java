@@ -0,0 +1,91 @@
+package jCLD.surenet.utils;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * A HalfFloatMatrix that is filled in lazily by any number of threads.
+ *
+ * Every slot starts out NOT_COMPUTED. A thread that wants to compute
+ * a value first claims the slot, swapping NOT_COMPUTED for CLAIMED with
+ * a compare-and-set, and afterwards either publishes the value or
+ * releases the slot back to NOT_COMPUTED. Only one thread can hold the
+ * claim, so a value is never computed twice at once; a thread that
+ * loses the race waits for the value instead. Values are only stored
+ * once, so reading one needs no lock.
+ *
+ * The inherited get/set/push are plain array accesses, for use while
+ * only one thread is touching the matrix (e.g. readPrescores).
+ */
+public class ConcurrentHalfFloatMatrix extends HalfFloatMatrix{
+
+	public static final float NOT_COMPUTED = -1f;
+	public static final float CLAIMED      = -2f;
+
+	private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(float[].class);
+	private static final int       SPINS = 64;  // Busy waits before a waiting thread starts yielding
+
+	public ConcurrentHalfFloatMatrix(int size) {
+		super(size, NOT_COMPUTED);
+	}
+
+	/**
+	 * Returns the value in a slot, which is NOT_COMPUTED or CLAIMED
+	 * if there is none yet
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	public float getAcquire(int x, int y) {
+		return (float)SLOTS.getAcquire(data, getIndex(x, y));
+	}
+
+	/**
+	 * Claims a slot for the calling thread, which must then publish or
+	 * release it. Returns false if the slot has a value already or
+	 * another thread holds the claim.
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	public boolean claim(int x, int y) {
+		return SLOTS.compareAndSet(data, getIndex(x, y), NOT_COMPUTED, CLAIMED);
+	}
+
+	/**
+	 * Stores the value of a claimed slot
+	 * @param x
+	 * @param y
+	 * @param val
+	 */
+	public void publish(int x, int y, float val) {
+		SLOTS.setRelease(data, getIndex(x, y), val);
+	}
+
+	/**
+	 * Gives up the claim on a slot without storing a value
+	 * @param x
+	 * @param y
+	 */
+	public void release(int x, int y) {
+		SLOTS.setRelease(data, getIndex(x, y), NOT_COMPUTED);
+	}
+
+	/**
+	 * Waits while another thread holds the claim on a slot, then
+	 * returns its value, which is NOT_COMPUTED if the claim was released
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	public float await(int x, int y) {
+		int   indx  = getIndex(x, y);
+		float val;
+		for(int spins = 0; (val = (float)SLOTS.getAcquire(data, indx)) == CLAIMED; spins++) {
+			if(spins < SPINS) Thread.onSpinWait();
+			else Thread.yield();
+		}
+		return val;
+	}
+
+}
@@ -0,0 +1,188 @@
+package jCLD.surenet.utils;
+
+import java.util.Arrays;
+
+/**
+ * Calculates the cyclic edit distance between two sequences: the
+ * lowest Levenshtein distance between any rotation of one and any
+ * rotation of the other. Only a needs to be rotated, since an
+ * alignment of two rotations can be rotated into an alignment of a
+ * rotation of a with b at the same cost.
+ *
+ * Uses Maes' divide-and-conquer algorithm:
+ *
+ *   Maurice Maes, "On a cyclic string-to-string correction problem",
+ *   Information Processing Letters 35(2), 1990.
+ *
+ * The distance for rotation k is the cost of the shortest path from
+ * (k, 0) to (k + m, n) in the edit graph of a doubled a against b.
+ * Shortest paths from different start rows can always be chosen so
+ * that they do not cross, so once the paths for rotations k1 < k2
+ * are known, the path for any rotation between them can be found by
+ * a DP over only the cells between those two paths. Splitting the
+ * rotations in half each time gives O(mn log m) in all, rather than
+ * O(m^2 n) for trying each rotation of a, or O(m^2 n^2) for trying
+ * each pair of rotations as Utilities.distLevenshteinWithRotation does.
+ *
+ * An instance keeps its work arrays from one calculation to the
+ * next, growing them as needed, so it is not thread-safe; each
+ * DistanceKernel has its own.
+ */
+public class CyclicEditDistance{
+
+	private static final int INFINITY = Integer.MAX_VALUE / 2;
+
+	private int[]   a;
+	private int     aFrom;
+	private int     m;
+	private int[]   b;
+	private int     bFrom;
+	private int     n;
+	private int     lowestPossible;
+	private int     best;
+
+	// Work arrays
+	private int[]   cells   = new int[256];   // DP values for the cells of the current region, column by column
+	private int[]   offsets = new int[16];    // Where each column starts in cells
+	private int[][] tops    = new int[0][];   // Rows covered by the path at each recursion depth, by column
+	private int[][] bottoms = new int[0][];
+	private int[]   costs   = new int[0];
+
+	/**
+	 * Returns the cyclic edit distance between a and b (insert,
+	 * delete and substitute all costing 1), using the calling
+	 * thread's DistanceKernel
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	public static int distance(int[] a, int[] b) {
+		return DistanceKernel.forCurrentThread().cyclicDistance(a, 0, a.length, b, 0, b.length);
+	}
+
+	/**
+	 * Returns the cyclic edit distance between the m values of
+	 * first starting at firstFrom and the n values of second
+	 * starting at secondFrom
+	 * @return
+	 */
+	public int distance(int[] first, int firstFrom, int firstLength, int[] second, int secondFrom, int secondLength) {
+		if(firstLength == 0 || secondLength == 0) return firstLength + secondLength;
+		a              = first;
+		aFrom          = firstFrom;
+		m              = firstLength;
+		b              = second;
+		bFrom          = secondFrom;
+		n              = secondLength;
+		lowestPossible = Math.abs(m - n);
+		reserve();
+
+		// Path 0 is the first rotation, found in rows 0 .. m (held in slot 1 meanwhile);
+		// path 1 is the same path m rows further down
+		Arrays.fill(tops[1],    0, n + 1, 0);
+		Arrays.fill(bottoms[1], 0, n + 1, m);
+		path(0, 1, 1, 0);
+		for(int j = 0; j <= n; j++) {
+			tops[1][j]    = tops[0][j] + m;
+			bottoms[1][j] = bottoms[0][j] + m;
+		}
+		best = costs[0];
+		split(0, 0, m, 1, 2);
+		a = b = null;
+		return best;
+	}
+
+	/**
+	 * Finds the paths for the rotations strictly between k1 and k2,
+	 * storing the new paths from the specified depth on
+	 */
+	private void split(int k1, int upper, int k2, int lower, int depth) {
+		if(k2 - k1 <= 1 || best == lowestPossible) return;
+		int k = (k1 + k2) >>> 1;
+		path(k, upper, lower, depth);
+		best = Math.min(best, costs[depth]);
+		split(k1, upper, k, depth, depth + 1);
+		split(k, depth, k2, lower, depth + 1);
+	}
+
+	/**
+	 * Finds a shortest path from (k, 0) to (k + m, n), using only the
+	 * cells in each column from the top of the upper path to the
+	 * bottom of the lower one, and stores it at the specified depth
+	 * (which must not be that of either bounding path)
+	 */
+	private void path(int k, int upper, int lower, int depth) {
+		int[] minRow = tops[upper];
+		int[] maxRow = bottoms[lower];
+
+		// Region cells, column by column
+		for(int j = 0; j <= n; j++) offsets[j + 1] = offsets[j] + maxRow[j] - minRow[j] + 1;
+		if(offsets[n + 1] > cells.length) cells = new int[Math.max(offsets[n + 1], cells.length * 2)];
+		int[] d = cells;
+
+		for(int i = minRow[0]; i <= maxRow[0]; i++) d[i - minRow[0]] = i < k ? INFINITY : i - k;
+		for(int j = 1; j <= n; j++) {
+			int lo     = minRow[j];
+			int hi     = maxRow[j];
+			int prevLo = minRow[j - 1];
+			int prevHi = maxRow[j - 1];
+			int here   = offsets[j] - lo;
+			int prev   = offsets[j - 1] - prevLo;
+			int letter = b[bFrom + j - 1];
+			for(int i = lo; i <= hi; i++) {
+				int v = INFINITY;
+				if(i >= prevLo && i <= prevHi)         v = d[prev + i] + 1;                                      // Insert
+				if(i - 1 >= prevLo && i - 1 <= prevHi) v = Math.min(v, d[prev + i - 1] + (a[aFrom + (i - 1) % m] == letter ? 0 : 1));
+				if(i > lo)                             v = Math.min(v, d[here + i - 1] + 1);                     // Delete
+				d[here + i] = v;
+			}
+		}
+
+		// Trace back from the end, recording the rows covered in each column
+		int[] top    = tops[depth];
+		int[] bottom = bottoms[depth];
+		int   i      = k + m;
+		int   j      = n;
+		top[j] = bottom[j] = i;
+		costs[depth] = d[offsets[n] - minRow[n] + i];
+		while(i > k || j > 0) {
+			int v = d[offsets[j] - minRow[j] + i];
+			if(j > 0 && i - 1 >= minRow[j - 1] && i - 1 <= maxRow[j - 1] &&
+			   d[offsets[j - 1] - minRow[j - 1] + i - 1] + (a[aFrom + (i - 1) % m] == b[bFrom + j - 1] ? 0 : 1) == v) {
+				i--;
+				j--;
+				top[j] = bottom[j] = i;
+			}
+			else if(i > minRow[j] && d[offsets[j] - minRow[j] + i - 1] + 1 == v) {
+				i--;
+				top[j] = i;
+			}
+			else {
+				j--;
+				top[j] = bottom[j] = i;
+			}
+		}
+	}
+
+	/**
+	 * Makes sure the work arrays are large enough for the current
+	 * lengths; the recursion is at most log2(m) + 3 paths deep
+	 */
+	private void reserve() {
+		int depth = 34 - Integer.numberOfLeadingZeros(m);
+		if(offsets.length < n + 2) offsets = new int[Math.max(n + 2, offsets.length * 2)];
+		if(tops.length < depth) {
+			tops    = Arrays.copyOf(tops,    depth);
+			bottoms = Arrays.copyOf(bottoms, depth);
+			costs   = Arrays.copyOf(costs,   depth);
+		}
+		for(int p = 0; p < depth; p++) {
+			if(tops[p] == null || tops[p].length < n + 1) {
+				int size   = Math.max(n + 1, tops[p] == null ? 16 : tops[p].length * 2);
+				tops[p]    = new int[size];
+				bottoms[p] = new int[size];
+			}
+		}
+	}
+
+}
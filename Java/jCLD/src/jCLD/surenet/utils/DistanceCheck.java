@@ -0,0 +1,197 @@
+package jCLD.surenet.utils;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the distance kernels with the plain DP table that
+ * Utilities used before them, on random sequences, and prints any
+ * pair on which they disagree.
+ *
+ * Lengths are drawn up to 160 and also taken from either side of
+ * the 64-element block boundaries of LevenshteinPattern. Half of
+ * the pairs are unrelated; the other half are a rotation of the
+ * first sequence with a few edits, so that small distances (and
+ * the early exits that go with them) are tried as well.
+ *
+ * Arguments (both optional): the number of pairs, and the seed.
+ */
+public class DistanceCheck{
+
+	private static final int[] BOUNDARY_LENGTHS = {1, 2, 63, 64, 65, 127, 128, 129, 130};
+	private static final int   MAX_LENGTH       = 160;
+
+	private int failures = 0;
+
+	public static void main(String[] args) {
+		int    pairs  = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		long   seed   = args.length > 1 ? Long.parseLong(args[1]) : System.currentTimeMillis();
+		Random random = new Random(seed);
+		System.out.println("Checking distances on " + pairs + " random pairs, seed " + seed);
+
+		DistanceCheck check = new DistanceCheck();
+		for(int p = 0; p < pairs; p++) {
+			int   alphabet = 2 + random.nextInt(19);
+			int[] a        = randomSequence(random, randomLength(random), alphabet);
+			int[] b        = random.nextBoolean() ? randomSequence(random, randomLength(random), alphabet) : edited(random, a, alphabet);
+			check.compare(random, a, b);
+		}
+		System.out.println("Done: " + check.failures + " mismatches");
+	}
+
+	/**
+	 * Runs each kernel on the pair and checks it against the DP table
+	 * @param random for the thresholds
+	 * @param a
+	 * @param b
+	 */
+	private void compare(Random random, int[] a, int[] b) {
+		int                distance         = referenceDistance(a, b);
+		int                rotationDistance = referenceDistanceWithRotation(a, b);
+		LevenshteinPattern pattern          = new LevenshteinPattern(a);
+		if(a.length <= 8 && b.length <= 8) expect("rotating only b", a, b, rotationDistance, referenceDistanceOverPairs(a, b));
+
+		expect("LevenshteinPattern.distance", a, b, pattern.distance(b), distance);
+		expect("LevenshteinPattern.distanceWithRotation", a, b, pattern.distanceWithRotation(b), rotationDistance);
+		// The same, with the text in place in a larger array
+		int[] padded = padded(b, 3);
+		expect("DistanceKernel.distance (in place)", a, b, DistanceKernel.forCurrentThread().distance(pattern, padded, 3, b.length), distance);
+		expect("DistanceKernel.distanceWithRotation (in place)", a, b, DistanceKernel.forCurrentThread().distanceWithRotation(pattern, padded, 3, b.length), rotationDistance);
+
+		expect("CyclicEditDistance.distance", a, b, CyclicEditDistance.distance(a, b), rotationDistance);
+		expect("CyclicEditDistance.distance (swapped)", b, a, CyclicEditDistance.distance(b, a), rotationDistance);
+		expect("DistanceKernel.cyclicDistance (in place)", a, b, DistanceKernel.forCurrentThread().cyclicDistance(padded(a, 5), 5, a.length, padded, 3, b.length), rotationDistance);
+
+		// The banded kernel gives the distance if it is below the threshold, and the threshold if not
+		int[] thresholds = {0, 1, Math.abs(a.length - b.length), rotationDistance - 1, rotationDistance, rotationDistance + 1, random.nextInt(a.length + b.length + 2), a.length + b.length + 1};
+		for(int k: thresholds) {
+			if(k < 0) continue;
+			expect("DistanceKernel.levenshteinWithRotationAtMost, k = " + k, a, b, DistanceKernel.forCurrentThread().levenshteinWithRotationAtMost(padded(a, 5), 5, a.length, padded, 3, b.length, k), Math.min(rotationDistance, k));
+		}
+	}
+
+	private void expect(String what, int[] a, int[] b, int found, int expected) {
+		if(found == expected) return;
+		failures++;
+		System.out.println("MISMATCH " + what + ": " + found + " instead of " + expected);
+		System.out.println("  a = " + Utilities.writeIntArray(a));
+		System.out.println("  b = " + Utilities.writeIntArray(b));
+	}
+
+	/**
+	 * The Levenshtein distance by a full DP table, as
+	 * Utilities.distLevenshtein calculated it before the kernels
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	static int referenceDistance(int[] a, int[] b) {
+		int     m      = a.length;
+		int     n      = b.length;
+		int[][] matrix = new int[m + 1][n + 1];
+		for(int i = 0; i <= m; i++) matrix[i][0] = i;
+		for(int j = 0; j <= n; j++) matrix[0][j] = j;
+		for(int j = 1, y = 0; j <= n; j++, y++) {
+			for(int i = 1, x = 0; i <= m; i++, x++) {
+				matrix[i][j] = Math.min(Math.min(
+					matrix[x][j] + 1,
+					matrix[i][y] + 1),
+					matrix[x][y] + ((a[x] == b[y]) ? 0 : 1));
+			}
+		}
+		return matrix[m][n];
+	}
+
+	/**
+	 * The lowest distance between a and any rotation of b, trying
+	 * each one with referenceDistance. This is the lowest distance
+	 * over all pairs of rotations too (see CyclicEditDistance), which
+	 * is checked directly for short pairs.
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	static int referenceDistanceWithRotation(int[] a, int[] b) {
+		int lowest = a.length + b.length;
+		for(int[] r: rotations(b)) lowest = Math.min(lowest, referenceDistance(a, r));
+		return lowest;
+	}
+
+	/**
+	 * The lowest distance over all pairs of rotations, as
+	 * Utilities.distLevenshteinWithRotation searched for it
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	static int referenceDistanceOverPairs(int[] a, int[] b) {
+		int lowest = a.length + b.length;
+		for(int[] ra: rotations(a)) {
+			for(int[] rb: rotations(b)) lowest = Math.min(lowest, referenceDistance(ra, rb));
+		}
+		return lowest;
+	}
+
+	private static int[][] rotations(int[] s) {
+		int[][] result = new int[s.length][s.length];
+		for(int r = 0; r < s.length; r++) {
+			for(int i = 0; i < s.length; i++) result[r][i] = s[(r + i) % s.length];
+		}
+		return result;
+	}
+
+	private static int randomLength(Random random) {
+		if(random.nextInt(3) == 0) return BOUNDARY_LENGTHS[random.nextInt(BOUNDARY_LENGTHS.length)];
+		return 1 + random.nextInt(MAX_LENGTH);
+	}
+
+	private static int[] randomSequence(Random random, int length, int alphabet) {
+		int[] s = new int[length];
+		for(int i = 0; i < length; i++) s[i] = 1 + random.nextInt(alphabet);
+		return s;
+	}
+
+	/**
+	 * Returns a rotation of s with a few values changed, inserted or
+	 * deleted (never emptying it)
+	 */
+	private static int[] edited(Random random, int[] s, int alphabet) {
+		int[] result = rotations(s)[random.nextInt(s.length)];
+		int   edits  = random.nextInt(6);
+		for(int e = 0; e < edits; e++) {
+			int   at   = random.nextInt(result.length);
+			int[] next;
+			switch(random.nextInt(3)) {
+			case 0:
+				next     = result.clone();
+				next[at] = 1 + random.nextInt(alphabet);
+				break;
+			case 1:
+				next = new int[result.length + 1];
+				System.arraycopy(result, 0, next, 0, at);
+				next[at] = 1 + random.nextInt(alphabet);
+				System.arraycopy(result, at, next, at + 1, result.length - at);
+				break;
+			default:
+				if(result.length == 1) continue;
+				next = new int[result.length - 1];
+				System.arraycopy(result, 0, next, 0, at);
+				System.arraycopy(result, at + 1, next, at, result.length - at - 1);
+			}
+			result = next;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a copy of s with the given number of other values
+	 * before and after it
+	 */
+	private static int[] padded(int[] s, int padding) {
+		int[] result = new int[s.length + 2 * padding];
+		Arrays.fill(result, -1);
+		System.arraycopy(s, 0, result, padding, s.length);
+		return result;
+	}
+
+}
@@ -0,0 +1,241 @@
+package jCLD.surenet.utils;
+
+/**
+ * Work space for Levenshtein distance calculations.
+ *
+ * Each kernel owns the arrays its calculations need (two DP rows,
+ * the bit vectors for LevenshteinPattern, the symbol indexes of
+ * the text, and a CyclicEditDistance), grows them when a longer
+ * sequence comes along, and otherwise reuses them, so a calculation
+ * allocates nothing once the kernel has warmed up.
+ *
+ * A kernel is not thread-safe. Each thread can get its own from
+ * forCurrentThread(), which is what the static methods in Utilities,
+ * LevenshteinPattern and CyclicEditDistance use, so those can be
+ * called from any number of threads at once. Sequences can be passed
+ * in place, as an array with a start position and a length.
+ */
+public class DistanceKernel{
+
+	private static final ThreadLocal<DistanceKernel> KERNELS = ThreadLocal.withInitial(DistanceKernel::new);
+
+	/**
+	 * Returns the calling thread's kernel
+	 * @return
+	 */
+	public static DistanceKernel forCurrentThread() {
+		return KERNELS.get();
+	}
+
+	private int[]              previous    = new int[64];
+	private int[]              current     = new int[64];
+	private int[]              textSymbols = new int[64];
+	private long[]             pv          = new long[1];
+	private long[]             mv          = new long[1];
+	private CyclicEditDistance cyclic      = new CyclicEditDistance();
+
+	/**
+	 * Calculates the Levenshtein distance between two sequences,
+	 * keeping two columns of the DP table
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	public int levenshtein(int[] a, int[] b) {
+		int m = a.length;
+		int n = b.length;
+		reserveRows(m + 1);
+		int[] prev = previous;
+		int[] cur  = current;
+		for(int i = 0; i <= m; i++) prev[i] = i;
+		for(int j = 1; j <= n; j++) {
+			int letterB = b[j - 1];
+			cur[0] = j;
+			for(int i = 1; i <= m; i++) {
+				cur[i] = Math.min(Math.min(prev[i] + 1, cur[i - 1] + 1), prev[i - 1] + ((a[i - 1] == letterB) ? 0 : 1));
+			}
+			int[] t = prev;
+			prev = cur;
+			cur  = t;
+		}
+		return prev[m];
+	}
+
+	/**
+	 * Calculates the lowest Levenshtein distance between any rotation
+	 * of a and any rotation of b by trying each pair of rotations, as
+	 * a DP of two columns. A try stops as soon as every cell of a
+	 * column is at least the lowest distance found so far, and the
+	 * search stops if it reaches the lowest distance possible.
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	public int levenshteinWithRotation(int[] a, int[] b) {
+		int m = a.length;
+		int n = b.length;
+		reserveRows(m + 1);
+
+		// Bail-out condition, the lowest Levenshtein Distance possible
+		int min    = Math.abs(m - n);
+		// Start with the highest Levenshtein Distance possible
+		int lowest = m + n;
+
+		mainLoop:
+		for(int aStart = 0; aStart < m; aStart++) {
+			for(int bStart = 0; bStart < n; bStart++) {
+				int[]   prev     = previous;
+				int[]   cur      = current;
+				boolean complete = true;
+				for(int i = 0; i <= m; i++) prev[i] = i;
+				for(int j = 1, letterBIndx = bStart; j <= n; j++, letterBIndx = (letterBIndx + 1 == n ? 0 : letterBIndx + 1)) {
+					int letterB        = b[letterBIndx];
+					int lowestPossible = j;
+					cur[0] = j;
+					for(int i = 1, letterAIndx = aStart; i <= m; i++, letterAIndx = (letterAIndx + 1 == m ? 0 : letterAIndx + 1)) {
+						lowestPossible = Math.min(lowestPossible, cur[i] = Math.min(Math.min(
+							prev[i] + 1,
+							cur[i - 1] + 1),
+							prev[i - 1] + ((a[letterAIndx] == letterB) ? 0 : 1)));
+					}
+					int[] t = prev;
+					prev = cur;
+					cur  = t;
+					// The rest of the table can do no better than the lowest value in this column
+					if(lowestPossible >= lowest) {
+						complete = false;
+						break;
+					}
+				}
+				if(complete) lowest = Math.min(prev[m], lowest);
+				if(lowest == min) break mainLoop;
+			}
+		}
+		return lowest;
+	}
+
+	/**
+	 * Calculates the lowest Levenshtein distance between the m values
+	 * of a starting at aFrom and any rotation of the n values of b
+	 * starting at bFrom, if it is less than k; otherwise returns k
+	 * without finishing.
+	 *
+	 * A cell (i, j) can only lie on an alignment costing less than k
+	 * if |i - j| < k and |(m - i) - (n - j)| < k, so each column is
+	 * only filled in that band (Ukkonen's cutoff), and a rotation is
+	 * abandoned as soon as a whole column of its band reaches k. Each
+	 * rotation that does better lowers k for the rest.
+	 * @return
+	 */
+	public int levenshteinWithRotationAtMost(int[] a, int aFrom, int m, int[] b, int bFrom, int n, int k) {
+		if(k <= Math.abs(m - n)) return k;
+		if(m == 0 || n == 0) return Math.min(k, m + n);
+		reserveRows(m + 2);
+		int infinity = Integer.MAX_VALUE / 2;
+		int shift    = m - n;
+
+		for(int start = 0; start < n; start++) {
+			int[]   prev     = previous;
+			int[]   cur      = current;
+			boolean complete = true;
+			int     hi       = Math.min(m, Math.min(k - 1, shift + k - 1));
+			for(int i = 0; i <= hi; i++) prev[i] = i;
+			prev[hi + 1] = infinity;
+			for(int j = 1, letterBIndx = bFrom + start; j <= n; j++, letterBIndx = (letterBIndx + 1 == bFrom + n ? bFrom : letterBIndx + 1)) {
+				int lo = Math.max(0, Math.max(j - k + 1, j + shift - k + 1));
+				hi     = Math.min(m, Math.min(j + k - 1, j + shift + k - 1));
+				if(lo > hi) {
+					complete = false;
+					break;
+				}
+				int letterB = b[letterBIndx];
+				int lowest  = infinity;
+				if(lo == 0) {
+					cur[0] = j;
+					lowest = j;
+				}
+				else cur[lo - 1] = infinity;
+				for(int i = Math.max(lo, 1); i <= hi; i++) {
+					int v = Math.min(Math.min(prev[i] + 1, cur[i - 1] + 1), prev[i - 1] + ((a[aFrom + i - 1] == letterB) ? 0 : 1));
+					cur[i] = v;
+					if(v < lowest) lowest = v;
+				}
+				if(hi < m) cur[hi + 1] = infinity;
+				int[] t = prev;
+				prev = cur;
+				cur  = t;
+				if(lowest >= k) {
+					complete = false;
+					break;
+				}
+			}
+			if(complete && prev[m] < k) {
+				k = prev[m];
+				if(k == Math.abs(m - n)) break;
+			}
+		}
+		return k;
+	}
+
+	/**
+	 * Calculates the Levenshtein distance between the pattern and
+	 * the n values of text starting at from
+	 * @return
+	 */
+	public int distance(LevenshteinPattern pattern, int[] text, int from, int n) {
+		prepare(pattern, text, from, n);
+		return pattern.distance(textSymbols, n, 0, pv, mv);
+	}
+
+	/**
+	 * Calculates the lowest Levenshtein distance between the pattern
+	 * and any rotation of the n values of text starting at from. This
+	 * is the same value as Utilities.distLevenshteinWithRotation gives,
+	 * since any alignment of two rotations can be turned into an
+	 * alignment of the pattern with a rotation of the text at the same cost.
+	 * @return
+	 */
+	public int distanceWithRotation(LevenshteinPattern pattern, int[] text, int from, int n) {
+		int m = pattern.length();
+		if(m == 0 || n == 0) return m + n;
+		prepare(pattern, text, from, n);
+		int min    = Math.abs(m - n); // No rotation can do better
+		int lowest = m + n;
+		for(int start = 0; start < n && lowest > min; start++) {
+			lowest = Math.min(lowest, pattern.distance(textSymbols, n, start, pv, mv));
+		}
+		return lowest;
+	}
+
+	/**
+	 * Calculates the cyclic edit distance (see CyclicEditDistance)
+	 * between the m values of a starting at aFrom and the n values
+	 * of b starting at bFrom
+	 * @return
+	 */
+	public int cyclicDistance(int[] a, int aFrom, int m, int[] b, int bFrom, int n) {
+		return cyclic.distance(a, aFrom, m, b, bFrom, n);
+	}
+
+	/**
+	 * Looks up each value of the text in the pattern's symbol table,
+	 * and makes sure the bit vectors are large enough for the pattern
+	 */
+	private void prepare(LevenshteinPattern pattern, int[] text, int from, int n) {
+		if(textSymbols.length < n) textSymbols = new int[Math.max(n, textSymbols.length * 2)];
+		for(int j = 0; j < n; j++) textSymbols[j] = pattern.symbolIndex(text[from + j]);
+		if(pv.length < pattern.words()) {
+			pv = new long[pattern.words()];
+			mv = new long[pattern.words()];
+		}
+	}
+
+	private void reserveRows(int size) {
+		if(previous.length < size) {
+			int length = Math.max(size, previous.length * 2);
+			previous = new int[length];
+			current  = new int[length];
+		}
+	}
+
+}
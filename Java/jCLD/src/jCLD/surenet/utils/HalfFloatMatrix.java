@@ -2,7 +2,10 @@ package jCLD.surenet.utils;
 
 public class HalfFloatMatrix{
 	
-	private float[] data = null;
+	// Largest size whose indices still fit in an int
+	public static final int MAX_SIZE = 46341;
+	
+	protected float[] data = null;
 	
 	
 	public HalfFloatMatrix(int size) {
@@ -0,0 +1,174 @@
+package jCLD.surenet.utils;
+
+import java.util.Arrays;
+
+/**
+ * A sequence of integers prepared for bit-parallel Levenshtein
+ * distance calculations, using Myers' algorithm in the form given
+ * by Hyyrö:
+ *
+ *   Gene Myers, "A fast bit-vector algorithm for approximate string
+ *   matching based on dynamic programming", Journal of the ACM 46(3), 1999.
+ *
+ *   Heikki Hyyrö, "A bit-vector algorithm for computing Levenshtein
+ *   and Damerau edit distances", Nordic Journal of Computing 10(1), 2003.
+ *
+ * One column of the DP table is held as bit vectors of the
+ * vertical differences (+1 or -1) between neighbouring cells, so
+ * each element of the other sequence costs a few word operations
+ * per 64 elements of the pattern, instead of one operation per
+ * cell. The pattern-match masks (for each distinct value, the
+ * positions in the pattern that hold it) are computed once, when
+ * the pattern is made. Patterns longer than 64 elements are split
+ * into 64-element blocks, passing the horizontal difference at the
+ * bottom of each block to the top of the next.
+ *
+ * Patterns are immutable, and can be shared between threads; the
+ * work arrays for a calculation belong to a DistanceKernel.
+ */
+public class LevenshteinPattern{
+
+	private final int    length;
+	private final int    words;
+	private final int[]  symbols;     // Distinct values in the pattern, sorted
+	private final long[] masks;       // words masks for each symbol; bit i is set if pattern[i] is that symbol
+	private final long   lastBit;     // The bit for the last pattern element, in the last word
+
+	public LevenshteinPattern(int[] pattern) {
+		length  = pattern.length;
+		words   = Math.max(1, (length + 63) >>> 6);
+		lastBit = 1L << ((length - 1) & 63);
+
+		int[] sorted = pattern.clone();
+		Arrays.sort(sorted);
+		int distinct = 0;
+		for(int i = 0; i < sorted.length; i++) if(i == 0 || sorted[i] != sorted[i - 1]) sorted[distinct++] = sorted[i];
+		symbols = Arrays.copyOf(sorted, distinct);
+
+		masks = new long[distinct * words];
+		for(int i = 0; i < length; i++) {
+			int s = Arrays.binarySearch(symbols, pattern[i]);
+			masks[s * words + (i >>> 6)] |= 1L << i;
+		}
+	}
+
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * Returns the number of distinct values in the pattern
+	 * @return
+	 */
+	public int distinctCount() {
+		return symbols.length;
+	}
+
+	/**
+	 * Returns the number of distinct values that are in both this
+	 * pattern and the other, by merging their sorted symbol tables
+	 * @param other
+	 * @return
+	 */
+	public int countShared(LevenshteinPattern other) {
+		int[] x     = symbols;
+		int[] y     = other.symbols;
+		int   count = 0;
+		for(int i = 0, j = 0; i < x.length && j < y.length; ) {
+			if(x[i] < y[j])      i++;
+			else if(x[i] > y[j]) j++;
+			else {
+				count++;
+				i++;
+				j++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of 64-bit words per mask
+	 * @return
+	 */
+	int words() {
+		return words;
+	}
+
+	/**
+	 * Returns the index of the value in the pattern's symbol
+	 * table, or -1 if the pattern does not contain it
+	 * @param value
+	 * @return
+	 */
+	int symbolIndex(int value) {
+		int s = Arrays.binarySearch(symbols, value);
+		return s < 0 ? -1 : s;
+	}
+
+	/**
+	 * Calculates the Levenshtein distance (insert, delete and
+	 * substitute all costing 1) between the pattern and text,
+	 * using the calling thread's DistanceKernel
+	 * @param text
+	 * @return
+	 */
+	public int distance(int[] text) {
+		return DistanceKernel.forCurrentThread().distance(this, text, 0, text.length);
+	}
+
+	/**
+	 * Calculates the lowest Levenshtein distance between the pattern
+	 * and any rotation of text, using the calling thread's DistanceKernel;
+	 * see DistanceKernel.distanceWithRotation
+	 * @param text
+	 * @return
+	 */
+	public int distanceWithRotation(int[] text) {
+		return DistanceKernel.forCurrentThread().distanceWithRotation(this, text, 0, text.length);
+	}
+
+	/**
+	 * Runs the first n symbol indexes of a text through the pattern,
+	 * starting at position start and wrapping around
+	 * @param textSymbols
+	 * @param n
+	 * @param start
+	 * @param pv work array for the vertical +1 differences
+	 * @param mv work array for the vertical -1 differences
+	 * @return the distance
+	 */
+	int distance(int[] textSymbols, int n, int start, long[] pv, long[] mv) {
+		if(length == 0) return n;
+		Arrays.fill(pv, 0, words, -1L); // First column: each cell is one more than the one above
+		Arrays.fill(mv, 0, words, 0L);
+		int score = length;
+		int last  = words - 1;
+		for(int k = 0, j = start; k < n; k++, j = (j + 1 == n ? 0 : j + 1)) {
+			int s    = textSymbols[j];
+			int base = s * words;
+			int hin  = 1; // Top row: each cell is one more than the one to its left
+			for(int w = 0; w < words; w++) {
+				long eq = s < 0 ? 0L : masks[base + w];
+				long p  = pv[w];
+				long m  = mv[w];
+				long xv = eq | m;
+				if(hin < 0) eq |= 1L;
+				long xh = (((eq & p) + p) ^ p) | eq;
+				long ph = m | ~(xh | p);
+				long mh = p & xh;
+				long high = w == last ? lastBit : Long.MIN_VALUE;
+				int  hout = (ph & high) != 0 ? 1 : ((mh & high) != 0 ? -1 : 0);
+				ph <<= 1;
+				mh <<= 1;
+				if(hin < 0)      mh |= 1L;
+				else if(hin > 0) ph |= 1L;
+				pv[w] = mh | ~(xv | ph);
+				mv[w] = ph & xv;
+				hin   = hout;
+			}
+			score += hin;
+		}
+		return score;
+	}
+
+}
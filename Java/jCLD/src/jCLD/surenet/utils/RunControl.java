@@ -0,0 +1,137 @@
+package jCLD.surenet.utils;
+
+import java.io.File;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets a long calculation be paused, resumed or cancelled from
+ * outside it.
+ *
+ * The calculation calls checkpoint() between batches of work (each
+ * greedy iteration of the scoring, each line of moveFromPrecalc).
+ * While running this is a read of two volatile fields; while paused
+ * it blocks until resume() or cancel() is called; once cancelled it
+ * returns false, and the calculation should stop.
+ *
+ * pause(), resume() and cancel() can be called from any thread. To
+ * keep the old way of pausing (deleting a continue flag file, and
+ * creating it again to resume), watch() starts a background thread
+ * that checks the file and pauses or resumes accordingly, so the
+ * calculation itself never touches the file system.
+ *
+ * A pause or cancellation lasts until resume() or reset(), so each
+ * calculation should have its own control; each LoopSet makes one.
+ */
+public class RunControl{
+
+	private volatile boolean paused    = false;
+	private volatile boolean cancelled = false;
+	private Thread           watcher   = null;
+
+	public boolean isPaused() {
+		return paused;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	public synchronized void pause() {
+		if(!paused) System.out.println("- paused - " + ((new Date())));
+		paused = true;
+	}
+
+	public synchronized void resume() {
+		if(paused) System.out.println("- resumed - " + ((new Date())));
+		paused = false;
+		notifyAll();
+	}
+
+	/**
+	 * Asks the calculation to stop at its next checkpoint; also
+	 * releases it if it is paused
+	 */
+	public synchronized void cancel() {
+		cancelled = true;
+		notifyAll();
+	}
+
+	/**
+	 * Clears a cancellation (and a pause) so the control can be used
+	 * for another calculation
+	 */
+	public synchronized void reset() {
+		cancelled = false;
+		paused    = false;
+		notifyAll();
+	}
+
+	/**
+	 * Waits while the control is paused; returns false if the
+	 * calculation has been cancelled (or the thread was interrupted
+	 * while waiting), and true if it should carry on
+	 * @return
+	 */
+	public boolean checkpoint() {
+		if(paused && !cancelled) {
+			synchronized(this) {
+				while(paused && !cancelled) {
+					try {
+						wait();
+					}
+					catch(InterruptedException E) {
+						Thread.currentThread().interrupt();
+						return false;
+					}
+				}
+			}
+		}
+		return !cancelled;
+	}
+
+	/**
+	 * Starts a daemon thread that checks every so many seconds whether
+	 * the flag file exists, pausing when it goes missing (or is missing
+	 * to begin with) and resuming when it comes back. Replaces any
+	 * watch already running.
+	 * @param continueFlagFile
+	 * @param seconds
+	 */
+	public synchronized void watch(File continueFlagFile, int seconds) {
+		stopWatching();
+		boolean atStart = continueFlagFile.exists();
+		if(!atStart) pause(); // Before the calculation's first checkpoint, as waitAndSee did
+		watcher = new Thread(() -> {
+			boolean existed = atStart;
+			while(true) {
+				try {
+					TimeUnit.SECONDS.sleep(seconds);
+				}
+				catch(InterruptedException E) {
+					break;
+				}
+				boolean exists = continueFlagFile.exists();
+				if(exists != existed) {
+					if(exists) resume();
+					else pause();
+					existed = exists;
+				}
+			}
+		}, "RunControl watcher: " + continueFlagFile.getName());
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	/**
+	 * Stops the flag file watch, if there is one; leaves the control
+	 * paused or not as it is
+	 */
+	public synchronized void stopWatching() {
+		if(watcher != null) {
+			watcher.interrupt();
+			watcher = null;
+		}
+	}
+
+}
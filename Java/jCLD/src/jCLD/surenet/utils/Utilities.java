@@ -20,6 +20,7 @@ public class Utilities{
     	return ret;
     }
 	    
+	 // Checks the file on every call; RunControl.watch checks it from a background thread instead
 	 public static void waitAndSee(File continueFlagFile, int seconds) {
 		if(paused == false && !continueFlagFile.exists()) {
 			System.out.println("- paused - " + ((new Date())));
@@ -73,18 +74,15 @@ public class Utilities{
     	return ret;	
     }
     
-    // The matrix is static because tearing it down and rebuilding it
-    // is memory-intensive; instead, we build a new one whenever we need
-    // a larger one, but keep re-using it each time.
-    // Note also that we don't need to re-initialize; the algorithm
-    // initializes the top row and left column, then fills in the
-    // remainder without ever looking ahead. Because it only uses
-    // values that have been set correctly, we don't need to clear t
-    // out.
-    static int[][] matrix = new int[1][1];
+    // The DP work arrays belong to the calling thread's DistanceKernel,
+    // which keeps them from one call to the next (building a new table
+    // for every call is memory-intensive) and only grows them when a
+    // longer sequence comes along. Each thread has its own, so these
+    // can be called from several threads at once.
     
     /**
      * Calculates the Levenshtein distance between two sequences of integers
+     * (the costs are not used; every edit costs 1)
      * @param a
      * @param b
      * @param deleteInsertCost
@@ -92,122 +90,22 @@ public class Utilities{
      * @return
      */
     public static int distLevenshtein(final int[] a, final int[] b, final int deleteInsertCost, final int substituteCost) {
-    	final int m = a.length;
-    	final int n = b.length;
-    	if((m + 1) > matrix.length || (n + 1) > matrix[0].length) {
-    		//System.err.println("Expanding matrix");
-    		matrix = new int[m + 1][n + 1];
-    	}
-		for(int i = 0; i <= m; i++) matrix[i][0] = i;
-		for(int j = 0; j <= n; j++) matrix[0][j] = j;
-    	
-    	// Create a matrix like:
-    	//
-    	//          S  E  Q  U  E  N  C  E
-    	//       0  1  2  3  4  5  6  7  8
-    	//   T   1
-    	//   E   2
-    	//   X   3
-    	//   T   4
-    	//
-    	// Values for Uninitialized cells' and cells out of range are irrelevant
-    	// Initialization of row values is deferred
-    	for(int j = 1, y = 0; j <= n; j++, y++) {
-    		for(int i = 1, x = 0; i <= m; i++, x++) {
-				matrix[i][j] = Math.min(Math.min(
-			         	matrix[x][j] + 1, 
-			         	matrix[i][y] + 1),
-			        	matrix[x][y] + ((a[x] == b[y]) ? 0 : 1));
-    		}
-    	}    	
-    	return matrix[m][n];
+    	return DistanceKernel.forCurrentThread().levenshtein(a, b);
     }
 
-    
-    // In this version, we optimize by:
-    //
-    //    1 Deferring initialization of the zero column
-    //          until processing each row
-    
     public static int distLevenshteinOptimized(int[] a, int[] b) {
-		int m = a.length;
-		int n = b.length;
-		if((m + 1) > matrix.length || (n + 1) > matrix[0].length) {
-			matrix = new int[m + 1][n + 1];
-		}
-		for(int i = 0; i <= m; i++) matrix[i][0] = i;
-		for(int j = 0; j <= n; j++) matrix[0][j] = j;	
-		
-		for(int j = 1, y = 0; j <= n; j++, y++) {
-			for(int i = 1, x = 0; i <= m; i++, x++) {
-				matrix[i][j] = Math.min(Math.min(
-					         	matrix[x][j] + 1, 
-					         	matrix[i][y] + 1),
-					        	matrix[x][y] + ((a[x] == b[y]) ? 0 : 1));
-			}
-		}    	
-		return matrix[m][n];
+    	return DistanceKernel.forCurrentThread().levenshtein(a, b);
     }
     
-
-    
+    /**
+     * Calculates the lowest Levenshtein distance between any rotation
+     * of a and any rotation of b
+     * @param a
+     * @param b
+     * @return
+     */
     public static int distLevenshteinWithRotation(int[] a, int[] b) {
-    	int m = a.length;
-    	int n = b.length;
-    	if((m + 1) > matrix.length || (n + 1) > matrix[0].length) {
-    		matrix = new int[m + 1][n + 1];
-    	}
-    	
-    	// Save some time
-    	// This takes the arrays and makes them twice as long and repeats
-    	// the sequence, allowing 'rotation' just by sliding the start point
-    	int[] aDouble = new int[a.length * 2];
-    	for(int i = 0; i < a.length; i++) aDouble[i + a.length] = aDouble[i] = a[i];
-    	int[] bDouble = new int[b.length * 2];
-    	for(int i = 0; i < b.length; i++) bDouble[i + b.length] = bDouble[i] = b[i];
-    	    	
-		// Determine bail-out condition, the lowest Levenshtein Distance possible
-		int min = Math.max(0, Math.abs(a.length - b.length));
-		
-		// Start with the highest Levenshtein Distance possible
-		int lowest = m + n;
-
-		// Initialize the matrix; these never change
-		for(int i = 0; i <= m; i++) matrix[i][0] = i;
-		for(int j = 0; j <= n; j++) matrix[0][j] = j;
-
-		mainLoop:
-	    // These outer loops are for 'rotation', sliding the starting indices for the
-		// Arrays of letters
-		for(int aStart = 0; aStart < m; aStart++) {
-			for(int bStart = 0; bStart < n; bStart++) {
-				// This is the standard Levenshtein distance calculation
-				innerLoop:
-		    	for(int j = 1, y = 0, letterBIndx = bStart; j <= n; j++, y++, letterBIndx++) {
-		    		int letterB = bDouble[letterBIndx];
-		    		int lowestPossible = j;
-		    		for(int i = 1, x = 0, letterAIndx = aStart; i <= m; i++, x++, letterAIndx++) {
-						lowestPossible = 
-							Math.min(lowestPossible, matrix[i][j] = Math.min(Math.min(
-					         	matrix[x][j] + 1, 
-					         	matrix[i][y] + 1),
-					        	matrix[x][y] + ((aDouble[letterAIndx] == letterB) ? 0 : 1)));
-						// Can do a check here: if we are already above the
-						// lowest, quit
-						// The lowest possible outcome of the rest of the 
-						// algorithm is equal to the lowest value in this
-						// row
-		    		}
-		    		if(lowestPossible >= lowest) break innerLoop; 
-		    	}    	
-		    	lowest = Math.min(matrix[m][n], lowest);
-		    	// If you have found one that is equal to the theoretical minimum,
-		    	// Stop- no need to look further.
-		    	if(lowest == min) break mainLoop;
-			}
-		}
-		return lowest;
-		
+    	return DistanceKernel.forCurrentThread().levenshteinWithRotation(a, b);
     }
     
     